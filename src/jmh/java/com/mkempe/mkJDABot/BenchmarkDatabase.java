@@ -0,0 +1,65 @@
+/*
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ *
+ * Copyright (c) 2022 Meindert Kempe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package com.mkempe.mkJDABot;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Sets up the Database singleton on a throwaway SQLite file.
+ */
+public final class BenchmarkDatabase {
+    public static final String GUILD = "1";
+    public static final String CHANNEL = "2";
+    public static final String ROLE = "3";
+
+    private BenchmarkDatabase() {
+    }
+
+    /**
+     * Connects to a new temporary database, with the given settings applied before connecting.
+     */
+    public static Path open(Map<String, String> settings) throws IOException {
+        Path file = Files.createTempFile("mkJDABot-bench", ".db");
+        Database database = Database.getInstance();
+
+        database.connect("jdbc:sqlite:" + file);
+        settings.forEach(Settings.getInstance()::set);
+        database.close();
+        database.connect("jdbc:sqlite:" + file);
+        return file;
+    }
+
+    public static void close(Path file) throws IOException {
+        Database.getInstance().close();
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(Path.of(file + "-wal"));
+        Files.deleteIfExists(Path.of(file + "-shm"));
+    }
+
+    public static NotificationMessage notification(String name, int countMax) {
+        return new NotificationMessage(GUILD, CHANNEL, 0, name, ROLE, "Benchmark message\\nsecond line",
+                "0 0 9 * * MON", NotificationMessage.notifyTask.getName(), countMax, 0, "4");
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ *
+ * Copyright (c) 2022 Meindert Kempe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package com.mkempe.mkJDABot;
+
+import com.github.kagkarlsson.shaded.cronutils.model.Cron;
+import com.github.kagkarlsson.shaded.cronutils.model.CronType;
+import com.github.kagkarlsson.shaded.cronutils.model.definition.CronDefinitionBuilder;
+import com.github.kagkarlsson.shaded.cronutils.parser.CronParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cron validation as done by /schedule: a new parser per call as before, against the shared {@link CronCache}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CronBenchmark {
+
+    @Param({"0 0 9 * * MON", "0 */5 8-18 * * MON-FRI", "0 30 12 1 * *"})
+    public String cron;
+
+    @Benchmark
+    public Cron parseNewParser() {
+        CronParser parser = new CronParser(CronDefinitionBuilder.instanceDefinitionFor(CronType.SPRING));
+        return parser.parse(cron);
+    }
+
+    @Benchmark
+    public Cron parseCached() {
+        return CronCache.getInstance().parse(cron);
+    }
+}
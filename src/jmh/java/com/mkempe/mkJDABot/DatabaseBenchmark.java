@@ -0,0 +1,118 @@
+/*
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ *
+ * Copyright (c) 2022 Meindert Kempe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package com.mkempe.mkJDABot;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Database CRUD against a temporary SQLite file, with the row cache turned off so every call reaches SQLite.
+ * {@code cacheStatements=false} is the behaviour from before prepared statements were reused.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DatabaseBenchmark {
+    private static final int ROWS = 1000;
+
+    @Param({"true", "false"})
+    public boolean cacheStatements;
+
+    private Path file;
+    private Database database;
+    private int inserted;
+    private int count;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = BenchmarkDatabase.open(Map.of(
+                Settings.CACHE_SIZE, "0",
+                Settings.COUNT_WRITE_BEHIND, "false"));
+        database = Database.getInstance();
+        database.setCacheStatements(cacheStatements);
+
+        for (int i = 0; i < ROWS; i++) {
+            database.insertSchedule(BenchmarkDatabase.notification("n" + i, NotificationMessage.COUNTNONE));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkDatabase.close(file);
+    }
+
+    @Benchmark
+    public NotificationMessage getSchedule() {
+        return database.getSchedule(BenchmarkDatabase.GUILD, BenchmarkDatabase.CHANNEL, randomName());
+    }
+
+    @Benchmark
+    public List<NotificationMessage> getSchedules() {
+        return database.getSchedules(BenchmarkDatabase.GUILD, BenchmarkDatabase.CHANNEL, null);
+    }
+
+    @Benchmark
+    public SchedulePage getSchedulesPage() {
+        return database.getSchedulesPage(BenchmarkDatabase.GUILD, BenchmarkDatabase.CHANNEL, null,
+                BenchmarkDatabase.CHANNEL, randomName(), false, 5);
+    }
+
+    @Benchmark
+    public void insertSchedule() {
+        database.insertSchedule(BenchmarkDatabase.notification("i" + inserted++, NotificationMessage.COUNTNONE));
+    }
+
+    @Benchmark
+    public void deleteSchedule(Deletable deletable) {
+        database.deleteSchedule(BenchmarkDatabase.GUILD, BenchmarkDatabase.CHANNEL, deletable.name);
+    }
+
+    @Benchmark
+    public void updateCount() {
+        database.updateCount(BenchmarkDatabase.GUILD, BenchmarkDatabase.CHANNEL, randomName(), count++);
+    }
+
+    /**
+     * A fresh row for each delete, inserted outside the measurement.
+     */
+    @State(Scope.Thread)
+    public static class Deletable {
+        private int deleted;
+        String name;
+
+        @Setup(Level.Invocation)
+        public void insert() {
+            name = "d" + deleted++;
+            Database.getInstance().insertSchedule(BenchmarkDatabase.notification(name, NotificationMessage.COUNTNONE));
+        }
+    }
+
+    private static String randomName() {
+        return "n" + ThreadLocalRandom.current().nextInt(ROWS);
+    }
+}
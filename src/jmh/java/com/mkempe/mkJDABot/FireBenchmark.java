@@ -0,0 +1,101 @@
+/*
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ *
+ * Copyright (c) 2022 Meindert Kempe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package com.mkempe.mkJDABot;
+
+import com.github.kagkarlsson.scheduler.task.Execution;
+import com.github.kagkarlsson.scheduler.task.ExecutionContext;
+import com.github.kagkarlsson.scheduler.task.TaskInstance;
+import com.github.kagkarlsson.scheduler.task.helper.ScheduleAndData;
+import com.mkempe.mkJDABot.Listeners.CommandListener;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One scheduled fire through the notify task's handler, from claiming the row up to handing the message to a stub
+ * channel, with the bot started on a stub JDA. Counted notifications have a count large enough never to run out.
+ * {@code payload=false} fires instances without embedded notification, as scheduled before payloads were stored.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FireBenchmark {
+    private static final int ROWS = 1000;
+
+    @Param({"10000", "0"})
+    public int cacheSize;
+
+    @Param({"true", "false"})
+    public boolean writeBehind;
+
+    @Param({"false", "true"})
+    public boolean counted;
+
+    @Param({"true", "false"})
+    public boolean payload;
+
+    private Path file;
+    private final List<TaskInstance<ScheduleAndData>> instances = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = BenchmarkDatabase.open(Map.of(
+                Settings.CACHE_SIZE, String.valueOf(cacheSize),
+                Settings.COUNT_WRITE_BEHIND, String.valueOf(writeBehind)));
+
+        int countMax = counted ? Integer.MAX_VALUE : NotificationMessage.COUNTNONE;
+        List<NotificationMessage> notifications = new ArrayList<>();
+        List<Instant> executionTimes = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            NotificationMessage notification = BenchmarkDatabase.notification("n" + i, countMax);
+            notifications.add(notification);
+            executionTimes.add(notification.nextExecution(Instant.now()));
+            instances.add(new TaskInstance<>(NotificationMessage.notifyTask.getName(), notification.instanceId(),
+                    new NotificationSchedule(notification.schedule(), payload ? notification : null)));
+        }
+        // With their scheduled tasks, so reconciliation finds nothing to repair while the benchmark runs.
+        Database.getInstance().insertSchedules(notifications, executionTimes);
+
+        Bot.getInstance().start(Stubs.jda(), new CommandListener());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Bot.getInstance().stop();
+        BenchmarkDatabase.close(file);
+    }
+
+    @Benchmark
+    public void fire() {
+        TaskInstance<ScheduleAndData> instance = instances.get(ThreadLocalRandom.current().nextInt(ROWS));
+        // Due now, so the fire is on time rather than a catch-up.
+        NotificationMessage.notifyTask.execute(instance,
+                new ExecutionContext(null, new Execution(Instant.now(), instance), null));
+    }
+}
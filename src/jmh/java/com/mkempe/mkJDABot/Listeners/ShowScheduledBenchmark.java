@@ -0,0 +1,58 @@
+/*
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ *
+ * Copyright (c) 2022 Meindert Kempe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package com.mkempe.mkJDABot.Listeners;
+
+import com.mkempe.mkJDABot.NotificationMessage;
+import com.mkempe.mkJDABot.Stubs;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the /showscheduled reply text for large result sets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ShowScheduledBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int rows;
+
+    private List<NotificationMessage> messages;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        messages = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            messages.add(new NotificationMessage("1", "2", 0, "notification " + i, "3",
+                    "Benchmark message\\nsecond line", "0 0 9 * * MON", "notify", NotificationMessage.COUNTNONE, 0, "4"));
+        }
+    }
+
+    @Benchmark
+    public String formatSchedules() {
+        return CommandListener.formatSchedules(messages, Stubs.jda());
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ *
+ * Copyright (c) 2022 Meindert Kempe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package com.mkempe.mkJDABot;
+
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Role;
+import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
+import net.dv8tion.jda.api.requests.restaction.MessageCreateAction;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Minimal JDA stand-ins for benchmarks: one guild, one channel and one role that resolve for any id,
+ * and message sends that complete immediately without any network traffic.
+ */
+public final class Stubs {
+    public static final LongAdder SENT = new LongAdder();
+
+    private static final MessageChannel CHANNEL = proxy(MessageChannel.class, (method, args) -> switch (method.getName()) {
+        case "getId" -> "2";
+        case "getIdLong" -> 2L;
+        case "getAsMention" -> "<#2>";
+        case "sendMessage" -> sendAction();
+        default -> null;
+    });
+
+    private static final Role ROLE = proxy(Role.class, (method, args) -> switch (method.getName()) {
+        case "getId" -> "3";
+        case "getIdLong" -> 3L;
+        case "getAsMention" -> "<@&3>";
+        default -> null;
+    });
+
+    private static final Guild GUILD = proxy(Guild.class, (method, args) -> switch (method.getName()) {
+        case "getId" -> "1";
+        case "getIdLong" -> 1L;
+        case "getChannelById", "getTextChannelById" -> CHANNEL;
+        case "getRoleById" -> ROLE;
+        default -> null;
+    });
+
+    private static final JDA JDA = proxy(JDA.class, (method, args) -> switch (method.getName()) {
+        case "getGuildById" -> GUILD;
+        case "getChannelById", "getTextChannelById" -> CHANNEL;
+        case "getRoleById" -> ROLE;
+        default -> null;
+    });
+
+    private Stubs() {
+    }
+
+    public static JDA jda() {
+        return JDA;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MessageCreateAction sendAction() {
+        return proxy(MessageCreateAction.class, (method, args) -> {
+            if (!method.getName().equals("queue")) return null;
+
+            SENT.increment();
+            if (args != null && args.length > 0 && args[0] != null)
+                ((Consumer<Object>) args[0]).accept(null);
+            return null;
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        InvocationHandler invocationHandler = (proxy, method, args) -> switch (method.getName()) {
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "equals" -> proxy == args[0];
+            case "toString" -> type.getSimpleName() + "Stub";
+            default -> orDefault(method, handler.invoke(method, args));
+        };
+        return type.cast(Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[]{type}, invocationHandler));
+    }
+
+    private static Object orDefault(Method method, Object value) {
+        if (value != null || !method.getReturnType().isPrimitive()) return value;
+        if (method.getReturnType() == boolean.class) return false;
+        if (method.getReturnType() == void.class) return null;
+        if (method.getReturnType() == long.class) return 0L;
+        if (method.getReturnType() == double.class) return 0.0;
+        if (method.getReturnType() == float.class) return 0f;
+        return 0;
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        Object invoke(Method method, Object[] args) throws Throwable;
+    }
+}
@@ -21,18 +21,41 @@
 package com.mkempe.mkJDABot;
 
 import com.github.kagkarlsson.scheduler.Scheduler;
+import com.github.kagkarlsson.scheduler.SchedulerName;
 import com.mkempe.mkJDABot.Listeners.CommandListener;
 import com.mkempe.mkJDABot.Listeners.MessageListener;
+import com.mkempe.mkJDABot.Listeners.PurgeListener;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.JDABuilder;
+import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.requests.GatewayIntent;
+import net.dv8tion.jda.api.sharding.DefaultShardManagerBuilder;
+import net.dv8tion.jda.api.sharding.ShardManager;
+import net.dv8tion.jda.api.utils.ChunkingFilter;
+import net.dv8tion.jda.api.utils.MemberCachePolicy;
+import net.dv8tion.jda.api.utils.MiscUtil;
+import net.dv8tion.jda.api.utils.cache.CacheFlag;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
 
 public class Bot {
     private static final Bot INSTANCE = new Bot();
     private JDA jda;
+    private ShardManager shardManager;
     private Scheduler scheduler;
+    private CommandListener commandListener;
+    private MessageDispatcher dispatcher;
+    private MessageCoalescer coalescer;
+    private CatchUp catchUp;
+    private SchedulerWakeUp wakeUp;
+    private volatile long jdaHeap;
 
     private Bot() {
+        registerGauges();
     }
 
     public static Bot getInstance() {
@@ -40,56 +63,251 @@ public class Bot {
     }
 
     public void start() {
-        if (jda != null) throw new IllegalStateException("Already running");
+        if (isRunning()) throw new IllegalStateException("Already running");
 
         System.out.println("Starting bot...");
+        // Refuses a second process with the same node name before it connects.
+        NodeId.get();
 
-        JDABuilder builder = JDABuilder.createDefault(Settings.getInstance().get(Settings.API_KEY));
-        builder.enableIntents(GatewayIntent.MESSAGE_CONTENT);
-        builder.addEventListeners(new MessageListener(), new CommandListener());
-        jda = builder.build();
+        Settings settings = Settings.getInstance();
+        CommandListener listener = new CommandListener();
+        String shards = settings.get(Settings.SHARDS);
+        boolean lean = settings.get(Settings.JDA_PROFILE, "default").equals("lean");
 
+        // Forces full collections, so only measured when asked for, to compare profiles.
+        boolean heapReport = settings.getBoolean(Settings.JDA_HEAP_REPORT, false);
+        long heapBefore = heapReport ? usedHeap() : 0;
         try {
-            jda.awaitReady();
+            if (shards == null || shards.isBlank()) {
+                JDA session = buildSession(settings.get(Settings.API_KEY), lean, listener);
+                session.awaitReady();
+                if (heapReport) reportHeap(heapBefore, session.getGuildCache().size());
+                start(session, listener);
+            } else {
+                ShardManager manager = buildShardManager(settings.get(Settings.API_KEY), lean, shards.trim(), listener);
+                awaitShards(manager);
+                if (heapReport) reportHeap(heapBefore, manager.getGuildCache().size());
+                start(manager, listener);
+            }
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         }
-        jda.updateCommands().addCommands(CommandListener.getCommands()).queue();
+        // Commands are global, registering them through any one shard covers all guilds.
+        getShards().get(0).updateCommands().addCommands(CommandListener.getCommands()).queue();
+
+        System.out.println("Bot started.");
+    }
+
+    /**
+     * Starts sending and scheduling on a session that is already connected, with {@code listener} registered on it.
+     */
+    void start(JDA session, CommandListener listener) {
+        if (isRunning()) throw new IllegalStateException("Already running");
+
+        jda = session;
+        commandListener = listener;
+        startScheduling();
+    }
+
+    private void start(ShardManager manager, CommandListener listener) {
+        shardManager = manager;
+        commandListener = listener;
+        startScheduling();
+    }
+
+    private void startScheduling() {
+        Settings settings = Settings.getInstance();
+        // Woken for each execution, the scheduler only needs a slow safety poll.
+        wakeUp = settings.getBoolean(Settings.SCHEDULER_WAKEUP, false) ? new SchedulerWakeUp() : null;
+        int pollInterval = settings.getInt(Settings.SCHEDULER_POLL_INTERVAL, wakeUp == null ? 10 : 300);
+
+        startSending(Duration.ofSeconds(pollInterval));
 
-        Database.getInstance().initScheduler();
         this.scheduler = Scheduler
                 .create(Database.getInstance().getDataSource(), NotificationMessage.notifyTask, NotificationMessage.reminderTask)
                 .threads(10)
+                .pollingInterval(Duration.ofSeconds(pollInterval))
+                .statsRegistry(new SchedulerStats(wakeUp))
+                .schedulerName(new SchedulerName.Fixed(NodeId.get()))
+                .serializer(new TaskDataSerializer())
+                .startTasks(Reconciler.task(Duration.ofMinutes(settings.getInt(Settings.RECONCILE_INTERVAL, 60))))
                 .build();
         scheduler.start();
+        if (wakeUp != null) wakeUp.start(scheduler);
+    }
 
-        System.out.println("Bot started.");
+    private JDA buildSession(String token, boolean lean, CommandListener listener) {
+        if (lean) {
+            // Ids are only resolved to guilds, channels and roles, which JDA keeps cached without any intent.
+            // Nothing reads messages or members, so MessageListener, which does nothing, is left out as well.
+            return JDABuilder.createLight(token, EnumSet.noneOf(GatewayIntent.class))
+                    .setMemberCachePolicy(MemberCachePolicy.NONE)
+                    .setChunkingFilter(ChunkingFilter.NONE)
+                    .disableCache(EnumSet.allOf(CacheFlag.class))
+                    .addEventListeners(listener, new PurgeListener())
+                    .build();
+        }
+        return JDABuilder.createDefault(token)
+                .enableIntents(GatewayIntent.MESSAGE_CONTENT)
+                .addEventListeners(new MessageListener(), listener, new PurgeListener())
+                .build();
+    }
+
+    /**
+     * @param shards shard count, or "auto" for the count Discord recommends.
+     */
+    private ShardManager buildShardManager(String token, boolean lean, String shards, CommandListener listener) {
+        DefaultShardManagerBuilder builder;
+        if (lean) {
+            // Same as the lean single session.
+            builder = DefaultShardManagerBuilder.createLight(token, EnumSet.noneOf(GatewayIntent.class))
+                    .setMemberCachePolicy(MemberCachePolicy.NONE)
+                    .setChunkingFilter(ChunkingFilter.NONE)
+                    .disableCache(EnumSet.allOf(CacheFlag.class))
+                    .addEventListeners(listener, new PurgeListener());
+        } else {
+            builder = DefaultShardManagerBuilder.createDefault(token)
+                    .enableIntents(GatewayIntent.MESSAGE_CONTENT)
+                    .addEventListeners(new MessageListener(), listener, new PurgeListener());
+        }
+        builder.setShardsTotal(shards.equalsIgnoreCase("auto") ? -1 : Integer.parseInt(shards));
+        return builder.build();
+    }
+
+    /**
+     * Shards log in one at a time, wait for all of them so fires do not find their guild missing.
+     */
+    private static void awaitShards(ShardManager manager) throws InterruptedException {
+        while (manager.getShardCache().size() < manager.getShardsTotal())
+            Thread.sleep(1000);
+        for (JDA shard : manager.getShards()) {
+            shard.awaitReady();
+            System.out.println("Shard " + shard.getShardInfo().getShardString() + " ready");
+        }
+    }
+
+    private void registerGauges() {
+        Metrics metrics = Metrics.getInstance();
+        metrics.gauge("mkjdabot_jda_heap_bytes", "Heap retained by JDA after connecting, when jda_heap_report is set",
+                () -> jdaHeap);
+        metrics.gauge("mkjdabot_shards", "Gateway sessions", () -> getShards().size());
+        metrics.gauge("mkjdabot_shards_connected", "Gateway sessions connected",
+                () -> getShards().stream().filter(s -> s.getStatus() == JDA.Status.CONNECTED).count());
+        metrics.gauge("mkjdabot_gateway_ping_seconds", "Average gateway heartbeat latency over all shards",
+                () -> getShards().stream().mapToLong(JDA::getGatewayPing).average().orElse(0) / 1000);
+    }
+
+    /**
+     * Prints the heap JDA retained while connecting and filling its caches. Measured as the difference in used heap
+     * after a full collection, so it is approximate, but it does compare profiles on the same guilds.
+     */
+    private void reportHeap(long heapBefore, long guilds) {
+        long retained = Math.max(0, usedHeap() - heapBefore);
+        System.out.printf("JDA retained %d KB for %d guilds (%d KB per guild)%n",
+                retained / 1024, guilds, guilds == 0 ? 0 : retained / 1024 / guilds);
+        jdaHeap = retained;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
     }
 
     public void stop() {
-        if (jda == null) throw new IllegalStateException("Not running");
+        if (!isRunning()) throw new IllegalStateException("Not running");
 
         System.out.println("Stopping bot...");
+        if (wakeUp != null) wakeUp.shutdown();
         scheduler.stop();
-        jda.shutdown();
+        commandListener.shutdown();
+        stopSending();
+        if (shardManager != null) shardManager.shutdown();
+        else jda.shutdown();
+        shardManager = null;
         jda = null;
         System.out.println("Bot stopped.");
     }
 
+    private void startSending(Duration pollInterval) {
+        Settings settings = Settings.getInstance();
+        String threshold = settings.get(Settings.CATCHUP_THRESHOLD);
+        dispatcher = new MessageDispatcher(
+                settings.getInt(Settings.DISPATCH_CONCURRENCY, 4),
+                settings.getInt(Settings.DISPATCH_QUEUE_SIZE, 100),
+                settings.getInt(Settings.DISPATCH_RETRIES, 3));
+        coalescer = new MessageCoalescer(dispatcher, settings.getInt(Settings.COALESCE_WINDOW, 0));
+        catchUp = new CatchUp(Map.of(
+                NotificationMessage.notifyTask.getName(),
+                CatchUp.parse(settings.get(Settings.CATCHUP_NOTIFY, "collapse")),
+                NotificationMessage.reminderTask.getName(),
+                CatchUp.parse(settings.get(Settings.CATCHUP_REMINDER, "collapse"))),
+                CatchUp.threshold(threshold == null ? null : settings.getInt(Settings.CATCHUP_THRESHOLD, 0),
+                        pollInterval.toMillis()),
+                settings.getInt(Settings.CATCHUP_RATE, 30));
+    }
+
+    private void stopSending() {
+        catchUp.shutdown();
+        coalescer.shutdown();
+        dispatcher.shutdown();
+    }
+
     public void restart() {
         stop();
         start();
     }
 
     public boolean isRunning() {
-        return jda != null;
+        return jda != null || shardManager != null;
+    }
+
+    /**
+     * @return the session that receives the guild's events, or null if that shard is not running.
+     */
+    public JDA getJDA(String guildId) {
+        if (shardManager == null) return jda;
+        // Discord assigns guilds to shards by id, look the shard up directly instead of searching every shard.
+        return shardManager.getShardById(MiscUtil.getShardForGuild(guildId, shardManager.getShardsTotal()));
+    }
+
+    public Guild getGuildById(String guildId) {
+        JDA shard = getJDA(guildId);
+        return shard == null ? null : shard.getGuildById(guildId);
+    }
+
+    /**
+     * @return running sessions, a single one when not sharded.
+     */
+    public List<JDA> getShards() {
+        if (shardManager != null) return shardManager.getShards();
+        return jda == null ? List.of() : List.of(jda);
     }
 
-    public JDA getJDA() {
-        return jda;
+    public CommandListener getCommandListener() {
+        return commandListener;
     }
 
     public Scheduler getScheduler() {
         return scheduler;
     }
+
+    public MessageDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    public MessageCoalescer getCoalescer() {
+        return coalescer;
+    }
+
+    public CatchUp getCatchUp() {
+        return catchUp;
+    }
+
+    /**
+     * Tells the wake-up timer, if enabled, of an execution scheduled from this process.
+     */
+    public void scheduled(Instant at) {
+        if (wakeUp != null) wakeUp.wakeAt(at);
+    }
 }
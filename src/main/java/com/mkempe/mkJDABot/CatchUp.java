@@ -0,0 +1,166 @@
+/*
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ *
+ * Copyright (c) 2022 Meindert Kempe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.mkempe.mkJDABot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides what happens to executions that came due while the bot was down, so a restart does not send everything
+ * that was missed in one burst. An execution is a catch-up when it starts more than the threshold after it was due.
+ */
+public class CatchUp {
+    private static final Logger logger = LoggerFactory.getLogger(CatchUp.class);
+
+    public enum Policy {
+        /**
+         * Drop it: a notification waits for its next occurrence, a reminder is removed.
+         */
+        SKIP,
+        /**
+         * Fire once. db-scheduler runs a recurring instance only once however many occurrences were missed,
+         * so this is also what happens without a policy.
+         */
+        COLLAPSE,
+        /**
+         * Fire, but release the messages of all catch-ups at a bounded rate.
+         */
+        RATE
+    }
+
+    private final Map<String, Policy> policies;
+    private final long threshold;
+    private final long interval;
+    private final ScheduledExecutorService pacer;
+    private final Queue<Runnable> held = new ConcurrentLinkedQueue<>();
+    // Guarded by this.
+    private long nextRelease;
+
+    /**
+     * @param policies  policy per task name; tasks not in the map collapse.
+     * @param threshold milliseconds an execution may be late before it is a catch-up.
+     * @param rate      catch-up messages released per minute under {@link Policy#RATE}.
+     */
+    public CatchUp(Map<String, Policy> policies, long threshold, int rate) {
+        this.policies = Map.copyOf(policies);
+        this.threshold = threshold;
+        this.interval = TimeUnit.MINUTES.toNanos(1) / Math.max(1, rate);
+        this.nextRelease = System.nanoTime();
+        this.pacer = !policies.containsValue(Policy.RATE) ? null : Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "catch-up");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * An execution is picked up by the next poll, so it may start up to a poll interval late in normal running,
+     * for example when another node scheduled it. The threshold is kept at least twice that.
+     *
+     * @param configured   threshold in milliseconds, or null if not set.
+     * @param pollInterval milliseconds between scheduler polls.
+     * @return threshold in milliseconds to use.
+     */
+    public static long threshold(Integer configured, long pollInterval) {
+        long minimum = 2 * pollInterval;
+        if (configured == null) return Math.max(60_000, minimum);
+        if (configured < minimum) {
+            logger.warn("Catch-up threshold {} ms is below twice the poll interval, on time executions would be "
+                    + "treated as catch-ups; using {} ms", configured, minimum);
+            return minimum;
+        }
+        return configured;
+    }
+
+    public static Policy parse(String value) {
+        try {
+            return Policy.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            logger.warn("Unknown catch-up policy '{}', using collapse", value);
+            return Policy.COLLAPSE;
+        }
+    }
+
+    /**
+     * @param lag milliseconds between the execution being due and it starting.
+     * @return the policy to apply, or null if the execution is not a catch-up.
+     */
+    public Policy policyFor(String task, long lag) {
+        if (lag <= threshold) return null;
+        return policies.getOrDefault(task, Policy.COLLAPSE);
+    }
+
+    public void skipped(String task) {
+        Metrics.getInstance().counter("mkjdabot_catchup_skipped_total", "Catch-up executions skipped",
+                "task", task).increment();
+    }
+
+    public void fired(String task) {
+        Metrics.getInstance().counter("mkjdabot_catchup_fired_total", "Catch-up executions fired",
+                "task", task).increment();
+    }
+
+    /**
+     * Runs the send once the rate allows it; immediately when no task uses {@link Policy#RATE}.
+     */
+    public void release(Runnable send) {
+        if (pacer == null) {
+            send.run();
+            return;
+        }
+
+        long delay;
+        synchronized (this) {
+            long now = System.nanoTime();
+            nextRelease = Math.max(nextRelease, now);
+            delay = nextRelease - now;
+            nextRelease += interval;
+        }
+        // Every tick sends the oldest held message, so they go out in order.
+        held.add(send);
+        pacer.schedule(() -> {
+            Runnable next = held.poll();
+            if (next != null) next.run();
+        }, delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Drops what is still held back by the rate limit. Sending it all now would be the burst the limit prevents,
+     * just as the dispatcher is shut down.
+     */
+    public void shutdown() {
+        if (pacer == null) return;
+
+        pacer.shutdownNow();
+        int dropped = 0;
+        while (held.poll() != null) dropped++;
+        if (dropped > 0)
+            logger.warn("Dropped {} catch-up messages still held back by the rate limit", dropped);
+    }
+}
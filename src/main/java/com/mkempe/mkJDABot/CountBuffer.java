@@ -0,0 +1,78 @@
+/*
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ *
+ * Copyright (c) 2022 Meindert Kempe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package com.mkempe.mkJDABot;
+
+import com.mkempe.mkJDABot.NotificationCache.Key;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Count increments that have not been written to the database yet, summed per notification.
+ */
+class CountBuffer {
+    private Map<Key, Integer> pending = new HashMap<>();
+
+    /**
+     * @return number of notifications with pending increments after adding this one.
+     */
+    synchronized int add(Key key, int delta) {
+        pending.merge(key, delta, Integer::sum);
+        return pending.size();
+    }
+
+    synchronized int pending(Key key) {
+        return pending.getOrDefault(key, 0);
+    }
+
+    /**
+     * Removes and returns the pending increments of one notification.
+     */
+    synchronized int take(Key key) {
+        Integer delta = pending.remove(key);
+        return delta == null ? 0 : delta;
+    }
+
+    synchronized void remove(Key key) {
+        pending.remove(key);
+    }
+
+    synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * Takes all pending increments, leaving the buffer empty.
+     */
+    synchronized Map<Key, Integer> drain() {
+        Map<Key, Integer> drained = pending;
+        pending = new HashMap<>();
+        return drained;
+    }
+
+    /**
+     * Puts back increments from a flush that failed.
+     */
+    synchronized void restore(Map<Key, Integer> increments) {
+        increments.forEach((key, delta) -> pending.merge(key, delta, Integer::sum));
+    }
+}
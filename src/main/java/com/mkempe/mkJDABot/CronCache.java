@@ -0,0 +1,114 @@
+/*
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ *
+ * Copyright (c) 2022 Meindert Kempe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package com.mkempe.mkJDABot;
+
+import com.github.kagkarlsson.scheduler.task.schedule.CronSchedule;
+import com.github.kagkarlsson.shaded.cronutils.model.Cron;
+import com.github.kagkarlsson.shaded.cronutils.model.CronType;
+import com.github.kagkarlsson.shaded.cronutils.model.definition.CronDefinitionBuilder;
+import com.github.kagkarlsson.shaded.cronutils.model.time.ExecutionTime;
+import com.github.kagkarlsson.shaded.cronutils.parser.CronParser;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Process-wide cache of parsed cron expressions, shared by command validation and the scheduler,
+ * so each distinct expression is only parsed once.
+ */
+public class CronCache {
+    private static final int MAX_SIZE = 4096;
+    private static final CronCache INSTANCE = new CronCache();
+    private final CronParser parser = new CronParser(CronDefinitionBuilder.instanceDefinitionFor(CronType.SPRING));
+    // Expressions come from users, so keep the cache from growing without bound. Guarded by this.
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    private CronCache() {
+    }
+
+    public static CronCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the expression is not a valid Spring cron expression.
+     */
+    public Cron parse(String expression) {
+        return entry(expression).cron();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the expression is not a valid Spring cron expression.
+     */
+    public CronSchedule schedule(String expression) {
+        return entry(expression).schedule();
+    }
+
+    /**
+     * @return up to {@code count} fire times after {@code from}, fewer if the expression stops matching.
+     * @throws IllegalArgumentException if the expression is not a valid Spring cron expression.
+     */
+    public List<ZonedDateTime> nextExecutions(String expression, ZonedDateTime from, int count) {
+        ExecutionTime executionTime = entry(expression).executionTime();
+
+        List<ZonedDateTime> times = new ArrayList<>(count);
+        ZonedDateTime time = from;
+        while (times.size() < count) {
+            Optional<ZonedDateTime> next = executionTime.nextExecution(time);
+            if (next.isEmpty()) break;
+            time = next.get();
+            times.add(time);
+        }
+        return times;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private Entry entry(String expression) {
+        synchronized (this) {
+            Entry entry = entries.get(expression);
+            if (entry != null) return entry;
+        }
+
+        // Parsed outside the lock; if two threads race on a new expression the second put just replaces the first.
+        Cron cron = parser.parse(expression);
+        Entry entry = new Entry(cron, ExecutionTime.forCron(cron), new CronSchedule(expression));
+        synchronized (this) {
+            entries.put(expression, entry);
+        }
+        return entry;
+    }
+
+    private record Entry(Cron cron, ExecutionTime executionTime, CronSchedule schedule) {
+    }
+}
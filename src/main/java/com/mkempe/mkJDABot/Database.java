@@ -20,145 +20,298 @@
 
 package com.mkempe.mkJDABot;
 
+import com.github.kagkarlsson.scheduler.task.TaskInstanceId;
+import com.mkempe.mkJDABot.NotificationCache.Key;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
 import java.sql.*;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
 public class Database {
     private static final String NAME = "mkJDABot.db";
+    private static final int DEFAULT_CACHE_SIZE = 10_000;
+    private static final int DEFAULT_READERS = 4;
+    private static final int DEFAULT_COUNT_FLUSH_SIZE = 100;
+    private static final int DEFAULT_COUNT_FLUSH_INTERVAL = 1000;
+    private static final int ORPHAN_FETCH_SIZE = 500;
+    private static final int FOREACH_PAGE_SIZE = 500;
+    private static final Logger logger = LoggerFactory.getLogger(Database.class);
     private static final Database INSTANCE = new Database();
+    private NotificationCache cache = new NotificationCache(DEFAULT_CACHE_SIZE);
+    private final CountBuffer counts = new CountBuffer();
+    // Held exclusively while buffered counts are written, so a row read from the database and the increments still
+    // pending for it are always seen together.
+    private final ReadWriteLock countLock = new ReentrantReadWriteLock();
+    private ScheduledExecutorService countFlusher;
+    private int countFlushSize;
+    // Runs the *Async methods; one thread per pooled connection, so queries never wait on each other for a thread.
+    private ExecutorService ioExecutor;
+    private final StatementCache statements = new StatementCache();
+    private final NameIndex names = new NameIndex();
+    private final Metrics.Histogram getScheduleTime = queryTime("get_schedule");
+    private final Metrics.Histogram existsTime = queryTime("exists");
+    private final Metrics.Histogram getSchedulesTime = queryTime("get_schedules");
+    private final Metrics.Histogram getSchedulesPageTime = queryTime("get_schedules_page");
+    private final Metrics.Histogram insertTime = queryTime("insert_schedule");
+    private final Metrics.Histogram insertBatchTime = queryTime("insert_schedules");
+    private final Metrics.Histogram deleteTime = queryTime("delete_schedule");
+    private final Metrics.Histogram purgeTime = queryTime("purge_schedules");
+    private final Metrics.Histogram updateCountTime = queryTime("update_count");
+    private final Metrics.Histogram flushCountsTime = queryTime("flush_counts");
+    private final Metrics.Histogram claimFireTime = queryTime("claim_fire");
+    private final Metrics.Histogram incrementCountTime = queryTime("increment_count");
+    private final Metrics.Histogram getSettingsTime = queryTime("get_settings");
+    private final Metrics.Histogram setSettingTime = queryTime("set_setting");
+    private final Metrics.Histogram loadNamesTime = queryTime("load_names");
+    private final Metrics.Histogram nextExecutionTime = queryTime("next_execution_time");
+    private final Metrics.Histogram forEachScheduleTime = queryTime("for_each_schedule");
+    private final Metrics.Histogram createInstancesTime = queryTime("create_instances");
+    private final Metrics.Histogram findOrphansTime = queryTime("find_orphans");
+    private final Metrics.Histogram deleteOrphanInstancesTime = queryTime("delete_orphan_instances");
+    private final Metrics.Histogram deleteOrphanNotificationsTime = queryTime("delete_orphan_notifications");
+    private volatile boolean cacheStatements = true;
+    private Dialect dialect = Dialect.SQLITE;
+    // Pool all writes go through, a single connection for SQLite.
     private HikariDataSource dataSource;
+    // Read-only connections when WAL is enabled, otherwise the same pool as dataSource.
+    private HikariDataSource readDataSource;
 
     private Database() {
+        Metrics metrics = Metrics.getInstance();
+        metrics.gauge("mkjdabot_cache_entries", "Notifications in the row cache", () -> cache.size());
+        metrics.counter("mkjdabot_cache_hits_total", "Row cache hits", () -> cache.getHits());
+        metrics.counter("mkjdabot_cache_misses_total", "Row cache misses", () -> cache.getMisses());
+        metrics.counter("mkjdabot_cache_evictions_total", "Row cache evictions", () -> cache.getEvictions());
+        metrics.gauge("mkjdabot_pending_counts", "Notifications with count increments not yet written", counts::size);
+    }
 
+    private static Metrics.Histogram queryTime(String query) {
+        return Metrics.getInstance().histogram("mkjdabot_db_query_seconds",
+                "Time spent in database calls, including waiting for a connection", "query", query);
     }
 
-    public String getSetting(String setting) {
+    public Map<String, String> getSettings() {
+        long start = System.nanoTime();
         try (Connection connection = dataSource.getConnection()) {
-            PreparedStatement statement = connection.prepareStatement(
-                    "SELECT value FROM settings WHERE name = ?");
-            statement.setString(1, setting);
+            PreparedStatement statement = prepare(connection, "SELECT name, value FROM settings");
+
+            Map<String, String> settings = new HashMap<>();
+            try (ResultSet results = statement.executeQuery()) {
+                while (results.next()) {
+                    settings.put(results.getString("name"), results.getString("value"));
+                }
+            }
 
-            return statement.executeQuery().getString("value");
+            return settings;
         } catch (SQLException e) {
             throw new RuntimeException(e);
+        } finally {
+            getSettingsTime.record(System.nanoTime() - start);
         }
     }
 
     public void setSetting(String setting, String value) {
+        long start = System.nanoTime();
         try (Connection connection = dataSource.getConnection()) {
-            PreparedStatement statement = connection.prepareStatement(
-                    "INSERT INTO settings (name, value) VALUES (?, ?)" +
-                            "ON CONFLICT (name) DO UPDATE SET value = ?"
-            );
+            PreparedStatement statement = prepare(connection, dialect.upsertSetting());
             statement.setString(1, setting);
             statement.setString(2, value);
-            statement.setString(3, value);
 
             statement.executeUpdate();
         } catch (SQLException e) {
             throw new RuntimeException(e);
+        } finally {
+            setSettingTime.record(System.nanoTime() - start);
         }
     }
 
-    public void initSettings() {
+    /**
+     * Connects to the database given by the system property mkjdabot.db.url, with mkjdabot.db.user and
+     * mkjdabot.db.password if needed, or to the local SQLite file by default.
+     */
+    public void connect() {
+        connect(System.getProperty("mkjdabot.db.url", "jdbc:sqlite:" + NAME));
+    }
+
+    /**
+     * Connects to the given JDBC url instead of the configured one; used by the benchmarks.
+     */
+    void connect(String url) {
+        if (dataSource != null) throw new IllegalStateException("Already connected");
+
+        dialect = Dialect.fromUrl(url);
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(dialect.configure(url));
+//        config.setDataSourceClassName("org.sqlite.SQLiteDataSource");
+        config.setUsername(System.getProperty("mkjdabot.db.user"));
+        config.setPassword(System.getProperty("mkjdabot.db.password"));
+        config.setPoolName("mkJDABot-writer");
+        config.setMaximumPoolSize(dialect.getConnections());
+        this.dataSource = new HikariDataSource(config);
+        this.readDataSource = dataSource;
+
         try (Connection connection = dataSource.getConnection()) {
-            Statement statement = connection.createStatement();
-            statement.execute("""
-                    CREATE TABLE IF NOT EXISTS settings(
-                    name TEXT PRIMARY KEY NOT NULL,
-                    value TEXT NOT NULL
-                    );
-                    """
-            );
+            Migrations.migrate(connection, dialect);
+            if (dialect == Dialect.SQLITE)
+                Migrations.checkQueryPlans(connection);
+            loadNames(connection);
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
-    }
 
-    public void initScheduler() {
-        try (Connection connection = dataSource.getConnection()) {
-            Statement statement = connection.createStatement();
-            statement.execute("""
-                    CREATE TABLE IF NOT EXISTS scheduled_tasks
-                    (
-                        task_name            TEXT     NOT NULL,
-                        task_instance        TEXT     NOT NULL,
-                        task_data            BLOB,
-                        execution_time       DATETIME NOT NULL,
-                        picked               BOOLEAN  NOT NULL,
-                        picked_by            TEXT,
-                        last_success         DATETIME,
-                        last_failure         DATETIME,
-                        consecutive_failures INTEGER,
-                        last_heartbeat       DATETIME,
-                        version              INTEGER  NOT NULL,
-                        PRIMARY KEY (task_name, task_instance)
-                    );
+        // Settings live in the database, so they can only be consulted once the writer is up.
+        Settings settings = Settings.getInstance();
+        if (dialect == Dialect.SQLITE && settings.getBoolean(Settings.DATABASE_WAL, false))
+            connectReaders(url, settings.getInt(Settings.DATABASE_READERS, DEFAULT_READERS));
 
-                    CREATE INDEX execution_time_idx ON scheduled_tasks (execution_time);
-                    CREATE INDEX last_heartbeat_idx ON scheduled_tasks (last_heartbeat);
-                    """
-            );
+        // Other nodes change rows behind a shared database's back, a cached row could be stale.
+        cache = new NotificationCache(dialect.isShared() ? 0 : settings.getInt(Settings.CACHE_SIZE, DEFAULT_CACHE_SIZE));
 
-            statement.execute("""
-                    CREATE TABLE IF NOT EXISTS notifications
-                    (
-                        guild        TEXT NOT NULL,
-                        channel      TEXT NOT NULL,
-                        channel_type INTEGER NOT NULL,
-                        name         TEXT NOT NULL,
-                        role         TEXT,
-                        message      TEXT NOT NULL,
-                        schedule     TEXT NOT NULL,
-                        task_type    TEXT NOT NULL,
-                        count_max    INTEGER NOT NULL,
-                        count        INTEGER NOT NULL,
-                        user         TEXT NOT NULL,
-                        PRIMARY KEY (guild, channel, name)
-                    );
-                    """
-            );
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
+        int connections = dataSource.getMaximumPoolSize()
+                + (readDataSource == dataSource ? 0 : readDataSource.getMaximumPoolSize());
+        ioExecutor = Executors.newFixedThreadPool(connections, new ThreadFactory() {
+            private final AtomicInteger threads = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "database-io-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        if (settings.getBoolean(Settings.COUNT_WRITE_BEHIND, true)) {
+            countFlushSize = settings.getInt(Settings.COUNT_FLUSH_SIZE, DEFAULT_COUNT_FLUSH_SIZE);
+            long interval = settings.getInt(Settings.COUNT_FLUSH_INTERVAL, DEFAULT_COUNT_FLUSH_INTERVAL);
+            countFlusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "count-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            countFlusher.scheduleWithFixedDelay(this::flushCountsInBackground, interval, interval, TimeUnit.MILLISECONDS);
         }
     }
 
-
-    public void connect() {
-        if (dataSource != null) throw new IllegalStateException("Already connected");
+    /**
+     * Switches the database to write-ahead logging and opens a pool of read-only connections next to the writer.
+     * In WAL mode readers see the last committed state and never wait for the writer.
+     */
+    private void connectReaders(String url, int readers) {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA journal_mode = WAL");
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
 
         HikariConfig config = new HikariConfig();
-        config.setJdbcUrl("jdbc:sqlite:" + NAME);
-//        config.setDataSourceClassName("org.sqlite.SQLiteDataSource");
-        config.setMaximumPoolSize(1);
-        this.dataSource = new HikariDataSource(config);
-
+        config.setJdbcUrl(url);
+        config.setPoolName("mkJDABot-reader");
+        config.setMaximumPoolSize(Math.max(1, readers));
+        config.setConnectionInitSql("PRAGMA query_only = true");
+        this.readDataSource = new HikariDataSource(config);
     }
 
     public void close() {
         if (dataSource == null) throw new IllegalStateException("Not connected");
 
+        if (countFlusher != null) {
+            countFlusher.shutdown();
+            try {
+                countFlusher.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            countFlusher = null;
+        }
+        flushCounts();
+
+        ioExecutor.shutdown();
+        try {
+            ioExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ioExecutor = null;
+
+        statements.clear();
+        if (readDataSource != dataSource)
+            readDataSource.close();
         dataSource.close();
         dataSource = null;
+        readDataSource = null;
+        cache.clear();
     }
 
     public DataSource getDataSource() {
         return dataSource;
     }
 
+    public Dialect getDialect() {
+        return dialect;
+    }
+
+    /**
+     * Turns reuse of prepared statements on or off, e.g. to compare both in a benchmark.
+     */
+    public void setCacheStatements(boolean cacheStatements) {
+        this.cacheStatements = cacheStatements;
+        if (!cacheStatements) statements.clear();
+    }
+
+    public NotificationCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @return names of all notifications, kept in sync with the table by this class. Complete only if the database
+     * is not shared, otherwise it lacks what other nodes added since connecting.
+     */
+    public NameIndex getNames() {
+        return names;
+    }
+
+    private void loadNames(Connection connection) throws SQLException {
+        names.clear();
+        long start = System.nanoTime();
+        try (Statement statement = connection.createStatement();
+             ResultSet results = statement.executeQuery("SELECT guild, channel, name FROM notifications;")) {
+            while (results.next()) {
+                names.add(results.getString("guild"), results.getString("channel"), results.getString("name"));
+            }
+        } finally {
+            loadNamesTime.record(System.nanoTime() - start);
+        }
+        logger.info("Indexed {} notification names", names.size());
+    }
+
     public static Database getInstance() {
         return INSTANCE;
     }
 
     public void insertSchedule(NotificationMessage message) {
+        long start = System.nanoTime();
         try (Connection connection = dataSource.getConnection()) {
-            PreparedStatement statement = connection.prepareStatement("""
+            PreparedStatement statement = prepare(connection, """
                     INSERT INTO notifications
-                    (guild, channel, channel_type, name, role, message, schedule, task_type, count_max, count, user)
+                    (guild, channel, channel_type, name, role, message, schedule, task_type, count_max, count, "user")
                     VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?);
                     """
             );
@@ -175,14 +328,353 @@ public class Database {
             statement.setString(11, message.user());
 
             statement.executeUpdate();
+            cache.put(message);
+            names.add(message.guild(), message.channel(), message.name());
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            insertTime.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Inserts notifications together with their scheduler instances in one transaction. Notifications that already
+     * exist are skipped, and so are their instances.
+     *
+     * @param executionTimes first execution of each notification, in the same order.
+     * @return the notifications that were inserted.
+     */
+    public List<NotificationMessage> insertSchedules(List<NotificationMessage> messages, List<Instant> executionTimes) {
+        List<NotificationMessage> inserted = new ArrayList<>(messages.size());
+        List<Instant> insertedTimes = new ArrayList<>(messages.size());
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                PreparedStatement notifications = prepare(connection, """
+                        INSERT INTO notifications
+                        (guild, channel, channel_type, name, role, message, schedule, task_type, count_max, count, "user")
+                        VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+                        ON CONFLICT DO NOTHING;
+                        """
+                );
+                for (NotificationMessage message : messages) {
+                    notifications.setString(1, message.guild());
+                    notifications.setString(2, message.channel());
+                    notifications.setInt(3, message.channelType());
+                    notifications.setString(4, message.name());
+                    notifications.setString(5, message.role());
+                    notifications.setString(6, message.message());
+                    notifications.setString(7, message.schedule());
+                    notifications.setString(8, message.taskType());
+                    notifications.setInt(9, message.countMax());
+                    notifications.setInt(10, message.count());
+                    notifications.setString(11, message.user());
+                    notifications.addBatch();
+                }
+                int[] counts = notifications.executeBatch();
+
+                for (int i = 0; i < messages.size(); i++) {
+                    if (counts[i] == 0) continue;
+                    inserted.add(messages.get(i));
+                    insertedTimes.add(executionTimes.get(i));
+                }
+                addInstances(connection, inserted, insertedTimes);
+
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+
+            for (NotificationMessage message : inserted) {
+                names.add(message.guild(), message.channel(), message.name());
+            }
+            return inserted;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            insertBatchTime.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Schedules each notification's instance, unless it already has one.
+     *
+     * @return number of instances created.
+     */
+    public int createInstances(List<NotificationMessage> messages, List<Instant> executionTimes) {
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                int created = addInstances(connection, messages, executionTimes);
+                connection.commit();
+                return created;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            createInstancesTime.record(System.nanoTime() - start);
+        }
+    }
+
+    private int addInstances(Connection connection, List<NotificationMessage> messages, List<Instant> executionTimes)
+            throws SQLException {
+        if (messages.isEmpty()) return 0;
+
+        TaskDataSerializer serializer = new TaskDataSerializer();
+        // The columns db-scheduler sets when it creates an execution.
+        PreparedStatement statement = prepare(connection, """
+                INSERT INTO scheduled_tasks
+                (task_name, task_instance, task_data, execution_time, picked, version)
+                VALUES (?, ?, ?, ?, ?, 1)
+                ON CONFLICT DO NOTHING;
+                """
+        );
+        for (int i = 0; i < messages.size(); i++) {
+            NotificationMessage message = messages.get(i);
+            boolean notify = message.taskType().equals(NotificationMessage.notifyTask.getName());
+            Object data = notify ? new NotificationSchedule(message.schedule(), message) : message;
+
+            statement.setString(1, message.taskType());
+            statement.setString(2, message.instanceId());
+            statement.setBytes(3, serializer.serialize(data));
+            statement.setTimestamp(4, Timestamp.from(executionTimes.get(i)), utc());
+            statement.setBoolean(5, false);
+            statement.addBatch();
+        }
+        return updated(statement.executeBatch());
+    }
+
+    /**
+     * Walks notifications and the executions of notify and reminder tasks side by side in key order, and collects
+     * the entries of each that have no counterpart in the other. Executions being run are left out, a reminder
+     * deletes its notification while it runs.
+     *
+     * @param limit stop once this many orphans are found.
+     */
+    public Orphans findOrphans(int limit) {
+        long start = System.nanoTime();
+        String notify = NotificationMessage.notifyTask.getName();
+        String reminder = NotificationMessage.reminderTask.getName();
+        Orphans orphans = new Orphans(new ArrayList<>(), new ArrayList<>());
+
+        String instance = "guild || ':' || channel || ':' || name";
+        try (Connection connection = readDataSource.getConnection();
+             PreparedStatement notificationsStatement = connection.prepareStatement(
+                     "SELECT *, " + instance + " AS instance FROM notifications ORDER BY "
+                             + dialect.binary("task_type") + ", " + dialect.binary("(" + instance + ")") + ";");
+             PreparedStatement instancesStatement = connection.prepareStatement(
+                     "SELECT task_name, task_instance, picked FROM scheduled_tasks WHERE task_name IN (?, ?) ORDER BY "
+                             + dialect.binary("task_name") + ", " + dialect.binary("task_instance") + ";")) {
+            instancesStatement.setString(1, notify);
+            instancesStatement.setString(2, reminder);
+            // Without a transaction the PostgreSQL driver reads whole results into memory instead of fetching them.
+            connection.setAutoCommit(false);
+            notificationsStatement.setFetchSize(ORPHAN_FETCH_SIZE);
+            instancesStatement.setFetchSize(ORPHAN_FETCH_SIZE);
+
+            try (ResultSet notifications = notificationsStatement.executeQuery();
+                 ResultSet instances = instancesStatement.executeQuery()) {
+                boolean hasNotification = notifications.next();
+                boolean hasInstance = instances.next();
+
+                while ((hasNotification || hasInstance) && orphans.size() < limit) {
+                    int order;
+                    if (!hasInstance) order = -1;
+                    else if (!hasNotification) order = 1;
+                    else {
+                        order = dialect.compare(notifications.getString("task_type"), instances.getString("task_name"));
+                        if (order == 0)
+                            order = dialect.compare(notifications.getString("instance"),
+                                    instances.getString("task_instance"));
+                    }
+
+                    if (order < 0) {
+                        orphans.notifications().add(getNotificationMessageFromResults(notifications));
+                    } else if (order > 0 && !instances.getBoolean("picked")) {
+                        orphans.instances().add(TaskInstanceId.of(instances.getString("task_name"),
+                                instances.getString("task_instance")));
+                    }
+
+                    if (order <= 0) hasNotification = notifications.next();
+                    if (order >= 0) hasInstance = instances.next();
+                }
+            } finally {
+                connection.commit();
+                connection.setAutoCommit(true);
+            }
+            return orphans;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            findOrphansTime.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Cancels executions that have no notification, unless one was added or the execution was picked since they
+     * were found.
+     *
+     * @return number of executions cancelled.
+     */
+    public int deleteOrphanInstances(List<TaskInstanceId> instances) {
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                PreparedStatement statement = prepare(connection, """
+                        DELETE FROM scheduled_tasks
+                        WHERE task_name = ? AND task_instance = ? AND picked = ?
+                        AND NOT EXISTS (SELECT 1 FROM notifications WHERE guild = ? AND channel = ? AND name = ?);
+                        """
+                );
+                for (TaskInstanceId instance : instances) {
+                    // Malformed ids match no notification and are removed too.
+                    String[] key = Arrays.copyOf(instance.getId().split(":", 3), 3);
+                    statement.setString(1, instance.getTaskName());
+                    statement.setString(2, instance.getId());
+                    statement.setBoolean(3, false);
+                    statement.setString(4, key[0]);
+                    statement.setString(5, key[1]);
+                    statement.setString(6, key[2]);
+                    statement.addBatch();
+                }
+                int deleted = updated(statement.executeBatch());
+                connection.commit();
+                return deleted;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            deleteOrphanInstancesTime.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Deletes notifications that have no execution, unless one was created since they were found.
+     *
+     * @return number of notifications deleted.
+     */
+    public int deleteOrphanNotifications(List<NotificationMessage> messages) {
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            int deleted;
+            try {
+                PreparedStatement statement = prepare(connection, """
+                        DELETE FROM notifications
+                        WHERE guild = ? AND channel = ? AND name = ?
+                        AND NOT EXISTS (SELECT 1 FROM scheduled_tasks WHERE task_name = ? AND task_instance = ?);
+                        """
+                );
+                for (NotificationMessage message : messages) {
+                    statement.setString(1, message.guild());
+                    statement.setString(2, message.channel());
+                    statement.setString(3, message.name());
+                    statement.setString(4, message.taskType());
+                    statement.setString(5, message.instanceId());
+                    statement.addBatch();
+                }
+                deleted = updated(statement.executeBatch());
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+
+            for (NotificationMessage message : messages) {
+                counts.remove(new Key(message.guild(), message.channel(), message.name()));
+                cache.invalidate(message.guild(), message.channel(), message.name());
+                names.remove(message.guild(), message.channel(), message.name());
+            }
+            return deleted;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            deleteOrphanNotificationsTime.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return rows changed by a batch; drivers that do not report a statement's count are assumed to have changed one.
+     */
+    private static int updated(int[] counts) {
+        int updated = 0;
+        for (int count : counts) {
+            updated += count == Statement.SUCCESS_NO_INFO ? 1 : count;
+        }
+        return updated;
+    }
+
+    /**
+     * Passes every notification to {@code consumer}, ordered by key. Reads keyset pages of {@link #FOREACH_PAGE_SIZE},
+     * holding a connection only while a page is read, so a slow consumer does not block other queries.
+     */
+    public void forEachSchedule(Consumer<NotificationMessage> consumer) {
+        List<NotificationMessage> page = getAllSchedulesPage(null, FOREACH_PAGE_SIZE);
+        while (!page.isEmpty()) {
+            page.forEach(consumer);
+            if (page.size() < FOREACH_PAGE_SIZE) break;
+            page = getAllSchedulesPage(page.get(page.size() - 1), FOREACH_PAGE_SIZE);
+        }
+    }
+
+    /**
+     * @param after notification to continue after, or null for the first page.
+     * @return up to {@code size} notifications of all guilds, ordered by key.
+     */
+    private List<NotificationMessage> getAllSchedulesPage(NotificationMessage after, int size) {
+        List<NotificationMessage> page = new ArrayList<>(size);
+        long start = System.nanoTime();
+        countLock.readLock().lock();
+        try (Connection connection = readDataSource.getConnection()) {
+            PreparedStatement statement = prepare(connection, after == null
+                    ? "SELECT * FROM notifications ORDER BY guild, channel, name LIMIT ?;"
+                    : "SELECT * FROM notifications WHERE (guild, channel, name) > (?, ?, ?) "
+                    + "ORDER BY guild, channel, name LIMIT ?;");
+            int index = 1;
+            if (after != null) {
+                statement.setString(index++, after.guild());
+                statement.setString(index++, after.channel());
+                statement.setString(index++, after.name());
+            }
+            statement.setInt(index, size);
+
+            try (ResultSet results = statement.executeQuery()) {
+                while (results.next()) {
+                    page.add(withPendingCount(getNotificationMessageFromResults(results)));
+                }
+            }
+            return page;
         } catch (SQLException e) {
             throw new RuntimeException(e);
+        } finally {
+            countLock.readLock().unlock();
+            forEachScheduleTime.record(System.nanoTime() - start);
         }
     }
 
     public void updateCount(String guild, String channel, String name, int count) {
+        counts.remove(new Key(guild, channel, name));
+        long start = System.nanoTime();
         try (Connection connection = dataSource.getConnection()) {
-            PreparedStatement statement = connection.prepareStatement("""
+            PreparedStatement statement = prepare(connection, """
                     UPDATE notifications SET count = ?
                     WHERE guild = ? AND channel = ? AND name = ?;
                     """
@@ -193,14 +685,262 @@ public class Database {
             statement.setString(4, name);
 
             statement.executeUpdate();
+            cache.updateCount(guild, channel, name, count);
         } catch (SQLException e) {
             throw new RuntimeException(e);
+        } finally {
+            updateCountTime.record(System.nanoTime() - start);
         }
     }
 
+    /**
+     * Adds one to the count of a notification. With write-behind enabled the increment is buffered and written
+     * together with others in a single transaction, once enough have piled up or the flush interval has passed.
+     */
+    public void incrementCount(String guild, String channel, String name) {
+        if (countFlusher == null) {
+            long start = System.nanoTime();
+            try (Connection connection = dataSource.getConnection()) {
+                PreparedStatement statement = prepare(connection, """
+                        UPDATE notifications SET count = count + 1
+                        WHERE guild = ? AND channel = ? AND name = ?;
+                        """
+                );
+                statement.setString(1, guild);
+                statement.setString(2, channel);
+                statement.setString(3, name);
+
+                statement.executeUpdate();
+                cache.incrementCount(guild, channel, name);
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            } finally {
+                incrementCountTime.record(System.nanoTime() - start);
+            }
+            return;
+        }
+
+        int pending = counts.add(new Key(guild, channel, name), 1);
+        cache.incrementCount(guild, channel, name);
+        if (pending >= countFlushSize)
+            countFlusher.execute(this::flushCountsInBackground);
+    }
+
+    /**
+     * Writes all buffered count increments in one transaction.
+     */
+    public void flushCounts() {
+        countLock.writeLock().lock();
+        try {
+            Map<Key, Integer> increments = counts.drain();
+            if (increments.isEmpty()) return;
+
+            long start = System.nanoTime();
+            try (Connection connection = dataSource.getConnection()) {
+                connection.setAutoCommit(false);
+                try {
+                    PreparedStatement statement = prepare(connection, """
+                            UPDATE notifications SET count = count + ?
+                            WHERE guild = ? AND channel = ? AND name = ?;
+                            """
+                    );
+                    for (Map.Entry<Key, Integer> increment : increments.entrySet()) {
+                        statement.setInt(1, increment.getValue());
+                        statement.setString(2, increment.getKey().guild());
+                        statement.setString(3, increment.getKey().channel());
+                        statement.setString(4, increment.getKey().name());
+                        statement.addBatch();
+                    }
+
+                    statement.executeBatch();
+                    connection.commit();
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                counts.restore(increments);
+                throw new RuntimeException(e);
+            } finally {
+                flushCountsTime.record(System.nanoTime() - start);
+            }
+        } finally {
+            countLock.writeLock().unlock();
+        }
+    }
+
+    private void flushCountsInBackground() {
+        try {
+            flushCounts();
+        } catch (RuntimeException e) {
+            logger.warn("Failed to write notification counts, retrying on next flush", e);
+        }
+    }
+
+    /**
+     * Claims one fire of a notification: reads the row and, in the same transaction, increments its count or deletes
+     * it when this is its last fire (always for one-time notifications).
+     * Rows without a count that are cached, and counted rows that are cached and not on their last fire while
+     * write-behind is enabled, are claimed without touching the database.
+     *
+     * @return the row including this fire in its count, or null if the notification no longer exists.
+     */
+    public NotificationMessage claimFire(String guild, String channel, String name, boolean oneTime) {
+        if (!oneTime) {
+            NotificationMessage cached = cache.get(guild, channel, name);
+            if (cached != null && cached.countMax() <= 0)
+                return cached;
+            if (cached != null && countFlusher != null && cached.count() < cached.countMax() - 1) {
+                incrementCount(guild, channel, name);
+                return cached.withCount(cached.count() + 1);
+            }
+        }
+
+        Key key = new Key(guild, channel, name);
+        long generation = cache.generation();
+        long start = System.nanoTime();
+        countLock.readLock().lock();
+        try (Connection connection = dataSource.getConnection()) {
+            int pending = counts.take(key);
+            boolean deleted = oneTime;
+            NotificationMessage message;
+
+            connection.setAutoCommit(false);
+            try {
+                if (oneTime) {
+                    message = claimDelete(connection, key);
+                } else {
+                    message = claimCount(connection, key, pending + 1);
+                    if (message != null && message.countMax() > 0 && message.count() >= message.countMax()) {
+                        PreparedStatement statement = prepare(connection, """
+                                DELETE FROM notifications WHERE
+                                guild = ? AND
+                                channel = ? AND
+                                name = ?;
+                                """
+                        );
+                        setKey(statement, key, 1);
+                        statement.executeUpdate();
+                        deleted = true;
+                    }
+                }
+
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                if (pending > 0) counts.restore(Map.of(key, pending));
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+
+            if (deleted) {
+                cache.invalidate(guild, channel, name);
+                names.remove(guild, channel, name);
+            } else if (message != null) {
+                cache.putLoaded(message, generation);
+            }
+            return message;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            countLock.readLock().unlock();
+            claimFireTime.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Adds {@code delta} to the count of a counted notification and returns the updated row, or returns the row
+     * unchanged if it has no count.
+     */
+    private NotificationMessage claimCount(Connection connection, Key key, int delta) throws SQLException {
+        if (dialect.hasReturning()) {
+            PreparedStatement statement = prepare(connection, """
+                    UPDATE notifications SET count = count + ?
+                    WHERE guild = ? AND channel = ? AND name = ? AND count_max > 0
+                    RETURNING *;
+                    """
+            );
+            statement.setInt(1, delta);
+            setKey(statement, key, 2);
+
+            try (ResultSet results = statement.executeQuery()) {
+                if (results.next()) return getNotificationMessageFromResults(results);
+            }
+        } else {
+            // The update locks the row, so reading it back in the same transaction is as good as RETURNING.
+            PreparedStatement statement = prepare(connection, """
+                    UPDATE notifications SET count = count + ?
+                    WHERE guild = ? AND channel = ? AND name = ? AND count_max > 0;
+                    """
+            );
+            statement.setInt(1, delta);
+            setKey(statement, key, 2);
+            statement.executeUpdate();
+        }
+
+        return queryRow(connection, """
+                SELECT * FROM notifications WHERE
+                guild = ? AND
+                channel = ? AND
+                name = ?;
+                """, key);
+    }
+
+    /**
+     * Deletes a notification and returns the deleted row, or null if there was none.
+     */
+    private NotificationMessage claimDelete(Connection connection, Key key) throws SQLException {
+        if (dialect.hasReturning()) {
+            return queryRow(connection, """
+                    DELETE FROM notifications
+                    WHERE guild = ? AND channel = ? AND name = ?
+                    RETURNING *;
+                    """, key);
+        }
+
+        // FOR UPDATE keeps other nodes from claiming the row until this transaction ends.
+        NotificationMessage message = queryRow(connection, """
+                SELECT * FROM notifications
+                WHERE guild = ? AND channel = ? AND name = ?
+                FOR UPDATE;
+                """, key);
+        if (message == null) return null;
+
+        PreparedStatement statement = prepare(connection, """
+                DELETE FROM notifications WHERE
+                guild = ? AND
+                channel = ? AND
+                name = ?;
+                """
+        );
+        setKey(statement, key, 1);
+        statement.executeUpdate();
+        return message;
+    }
+
+    private NotificationMessage queryRow(Connection connection, String sql, Key key) throws SQLException {
+        PreparedStatement statement = prepare(connection, sql);
+        setKey(statement, key, 1);
+
+        try (ResultSet results = statement.executeQuery()) {
+            if (!results.next()) return null;
+            return getNotificationMessageFromResults(results);
+        }
+    }
+
+    private static void setKey(PreparedStatement statement, Key key, int index) throws SQLException {
+        statement.setString(index, key.guild());
+        statement.setString(index + 1, key.channel());
+        statement.setString(index + 2, key.name());
+    }
+
     public void deleteSchedule(String guild, String channel, String name) {
+        long start = System.nanoTime();
         try (Connection connection = dataSource.getConnection()) {
-            PreparedStatement statement = connection.prepareStatement("""
+            PreparedStatement statement = prepare(connection, """
                     DELETE FROM notifications WHERE
                     guild = ? AND
                     channel = ? AND
@@ -212,15 +952,125 @@ public class Database {
             statement.setString(3, name);
 
             statement.executeUpdate();
+            counts.remove(new Key(guild, channel, name));
+            cache.invalidate(guild, channel, name);
+            names.remove(guild, channel, name);
         } catch (SQLException e) {
             throw new RuntimeException(e);
+        } finally {
+            deleteTime.record(System.nanoTime() - start);
         }
     }
 
-    public NotificationMessage getSchedule(String guild, String channel, String name) {
+    /**
+     * @return the earliest time an execution not yet picked comes due after {@code after}, or null if there is none.
+     */
+    public Instant getNextExecutionTime(Instant after) {
+        long start = System.nanoTime();
+        try (Connection connection = readDataSource.getConnection()) {
+            PreparedStatement statement = prepare(connection, """
+                    SELECT MIN(execution_time) FROM scheduled_tasks
+                    WHERE picked = ? AND execution_time > ?;
+                    """
+            );
+            // Bound the way db-scheduler binds them, so they compare the same.
+            statement.setBoolean(1, false);
+            statement.setTimestamp(2, Timestamp.from(after), utc());
+
+            try (ResultSet results = statement.executeQuery()) {
+                if (!results.next()) return null;
+                Timestamp next = results.getTimestamp(1, utc());
+                return next == null ? null : next.toInstant();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            nextExecutionTime.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Deletes all notifications of a guild, optionally only those in a channel or for a role, together with their
+     * scheduler instances, in one transaction. Instances being run are left to db-scheduler to finish; they find
+     * no notification on their next fire and reconciliation cancels them.
+     *
+     * @return number of notifications deleted.
+     */
+    public int purgeSchedules(String guild, String channel, String role) {
+        String filter = "guild = ?";
+        if (channel != null)
+            filter += " AND channel = ?";
+        if (role != null)
+            filter += " AND role = ?";
+
+        long start = System.nanoTime();
         try (Connection connection = dataSource.getConnection()) {
-            PreparedStatement statement = connection.prepareStatement("""
-                    SELECT * FROM notifications WHERE
+            List<NotificationMessage> purged = new ArrayList<>();
+            connection.setAutoCommit(false);
+            try {
+                PreparedStatement select = prepare(connection, "SELECT * FROM notifications WHERE " + filter + ";");
+                setFilter(select, guild, channel, role);
+                try (ResultSet results = select.executeQuery()) {
+                    while (results.next()) {
+                        purged.add(getNotificationMessageFromResults(results));
+                    }
+                }
+
+                // Deleting an execution is what cancelling it does.
+                PreparedStatement instances = prepare(connection,
+                        "DELETE FROM scheduled_tasks WHERE task_name = ? AND task_instance = ? AND picked = ?;");
+                for (NotificationMessage message : purged) {
+                    instances.setString(1, message.taskType());
+                    instances.setString(2, message.instanceId());
+                    instances.setBoolean(3, false);
+                    instances.addBatch();
+                }
+                instances.executeBatch();
+
+                PreparedStatement notifications = prepare(connection, "DELETE FROM notifications WHERE " + filter + ";");
+                setFilter(notifications, guild, channel, role);
+                notifications.executeUpdate();
+
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+
+            for (NotificationMessage message : purged) {
+                counts.remove(new Key(message.guild(), message.channel(), message.name()));
+                cache.invalidate(message.guild(), message.channel(), message.name());
+                names.remove(message.guild(), message.channel(), message.name());
+            }
+            return purged.size();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            purgeTime.record(System.nanoTime() - start);
+        }
+    }
+
+    private static void setFilter(PreparedStatement statement, String guild, String channel, String role)
+            throws SQLException {
+        int index = 1;
+        statement.setString(index++, guild);
+        if (channel != null)
+            statement.setString(index++, channel);
+        if (role != null)
+            statement.setString(index, role);
+    }
+
+    /**
+     * @return whether the notification exists, read from the database rather than the name index, so it also sees
+     * notifications added or removed by other nodes.
+     */
+    public boolean exists(String guild, String channel, String name) {
+        long start = System.nanoTime();
+        try (Connection connection = readDataSource.getConnection()) {
+            PreparedStatement statement = prepare(connection, """
+                    SELECT 1 FROM notifications WHERE
                     guild = ? AND
                     channel = ? AND
                     name = ?;
@@ -230,18 +1080,54 @@ public class Database {
             statement.setString(2, channel);
             statement.setString(3, name);
 
-            ResultSet results = statement.executeQuery();
+            try (ResultSet results = statement.executeQuery()) {
+                return results.next();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            existsTime.record(System.nanoTime() - start);
+        }
+    }
+
+    public NotificationMessage getSchedule(String guild, String channel, String name) {
+        NotificationMessage cached = cache.get(guild, channel, name);
+        if (cached != null) return cached;
 
-            if (!results.next()) return null;
+        long generation = cache.generation();
+        long start = System.nanoTime();
+        countLock.readLock().lock();
+        try (Connection connection = readDataSource.getConnection()) {
+            PreparedStatement statement = prepare(connection, """
+                    SELECT * FROM notifications WHERE
+                    guild = ? AND
+                    channel = ? AND
+                    name = ?;
+                    """
+            );
+            statement.setString(1, guild);
+            statement.setString(2, channel);
+            statement.setString(3, name);
 
-            return getNotificationMessageFromResults(results);
+            try (ResultSet results = statement.executeQuery()) {
+                if (!results.next()) return null;
+
+                NotificationMessage message = withPendingCount(getNotificationMessageFromResults(results));
+                cache.putLoaded(message, generation);
+                return message;
+            }
         } catch (SQLException e) {
             throw new RuntimeException(e);
+        } finally {
+            countLock.readLock().unlock();
+            getScheduleTime.record(System.nanoTime() - start);
         }
     }
 
     public ArrayList<NotificationMessage> getSchedules(String guild, String channel, String name) {
-        try (Connection connection = dataSource.getConnection()) {
+        long start = System.nanoTime();
+        countLock.readLock().lock();
+        try (Connection connection = readDataSource.getConnection()) {
             String sql = """
                     SELECT * FROM notifications WHERE
                     guild = ? AND
@@ -269,7 +1155,7 @@ public class Database {
             if (channel == null && name == null)
                 sql = all;
 
-            PreparedStatement statement = connection.prepareStatement(sql);
+            PreparedStatement statement = prepare(connection, sql);
             statement.setString(1, guild);
 
             if (name != null && channel == null) {
@@ -281,21 +1167,137 @@ public class Database {
                 statement.setString(3, name);
             }
 
-            ResultSet results = statement.executeQuery();
-
             ArrayList<NotificationMessage> messages = new ArrayList<>();
-            while (results.next()) {
-                messages.add(getNotificationMessageFromResults(results));
+            try (ResultSet results = statement.executeQuery()) {
+                while (results.next()) {
+                    messages.add(withPendingCount(getNotificationMessageFromResults(results)));
+                }
             }
 
             return messages;
 
         } catch (SQLException e) {
             throw new RuntimeException(e);
+        } finally {
+            countLock.readLock().unlock();
+            getSchedulesTime.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Fetches one page of a guild's notifications by keyset pagination on (channel, name), so the cost of a page
+     * does not depend on how far into the list it is.
+     *
+     * @param channel      optional channel filter.
+     * @param name         optional name filter.
+     * @param afterChannel channel of the row to continue from, or null for the first page.
+     * @param afterName    name of the row to continue from.
+     * @param backward     whether to return the page before that row instead of the one after it.
+     */
+    public SchedulePage getSchedulesPage(String guild, String channel, String name,
+                                         String afterChannel, String afterName, boolean backward, int size) {
+        StringBuilder sql = new StringBuilder("SELECT * FROM notifications WHERE guild = ?");
+        if (channel != null)
+            sql.append(" AND channel = ?");
+        if (name != null)
+            sql.append(" AND name = ?");
+        // With the channel fixed only the name is compared, otherwise SQLite sorts the rest of the channel
+        // in a temporary b-tree instead of walking the primary key index.
+        boolean fixedChannel = channel != null;
+        if (afterChannel != null && fixedChannel)
+            sql.append(backward ? " AND name < ?" : " AND name > ?");
+        else if (afterChannel != null)
+            sql.append(backward ? " AND (channel, name) < (?, ?)" : " AND (channel, name) > (?, ?)");
+        if (fixedChannel)
+            sql.append(backward ? " ORDER BY name DESC" : " ORDER BY name");
+        else
+            sql.append(backward ? " ORDER BY channel DESC, name DESC" : " ORDER BY channel, name");
+        // One extra row tells whether there is another page in this direction.
+        sql.append(" LIMIT ?;");
+
+        long start = System.nanoTime();
+        countLock.readLock().lock();
+        try (Connection connection = readDataSource.getConnection()) {
+            PreparedStatement statement = prepare(connection, sql.toString());
+            int index = 1;
+            statement.setString(index++, guild);
+            if (channel != null)
+                statement.setString(index++, channel);
+            if (name != null)
+                statement.setString(index++, name);
+            if (afterChannel != null) {
+                if (!fixedChannel)
+                    statement.setString(index++, afterChannel);
+                statement.setString(index++, afterName);
+            }
+            statement.setInt(index, size + 1);
+
+            ArrayList<NotificationMessage> messages = new ArrayList<>(size + 1);
+            try (ResultSet results = statement.executeQuery()) {
+                while (results.next()) {
+                    messages.add(withPendingCount(getNotificationMessageFromResults(results)));
+                }
+            }
+
+            boolean more = messages.size() > size;
+            if (more)
+                messages.remove(size);
+            if (!backward)
+                return new SchedulePage(messages, afterChannel != null, more);
+
+            Collections.reverse(messages);
+            return new SchedulePage(messages, more, true);
+
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            countLock.readLock().unlock();
+            getSchedulesPageTime.record(System.nanoTime() - start);
         }
     }
 
-    private NotificationMessage getNotificationMessageFromResults(ResultSet results) throws SQLException {
+    public CompletableFuture<Void> insertScheduleAsync(NotificationMessage message) {
+        return CompletableFuture.runAsync(() -> insertSchedule(message), ioExecutor);
+    }
+
+    public CompletableFuture<Void> deleteScheduleAsync(String guild, String channel, String name) {
+        return CompletableFuture.runAsync(() -> deleteSchedule(guild, channel, name), ioExecutor);
+    }
+
+    public CompletableFuture<Integer> purgeSchedulesAsync(String guild, String channel, String role) {
+        return CompletableFuture.supplyAsync(() -> purgeSchedules(guild, channel, role), ioExecutor);
+    }
+
+    public CompletableFuture<NotificationMessage> getScheduleAsync(String guild, String channel, String name) {
+        return CompletableFuture.supplyAsync(() -> getSchedule(guild, channel, name), ioExecutor);
+    }
+
+    public CompletableFuture<SchedulePage> getSchedulesPageAsync(String guild, String channel, String name,
+                                                                String afterChannel, String afterName,
+                                                                boolean backward, int size) {
+        return CompletableFuture.supplyAsync(
+                () -> getSchedulesPage(guild, channel, name, afterChannel, afterName, backward, size), ioExecutor);
+    }
+
+    private NotificationMessage withPendingCount(NotificationMessage message) {
+        int pending = counts.pending(Key.of(message));
+        if (pending == 0) return message;
+        return message.withCount(message.count() + pending);
+    }
+
+    /**
+     * Calendar db-scheduler binds its timestamps in.
+     */
+    private static Calendar utc() {
+        return Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    }
+
+    private PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+        if (!cacheStatements) return connection.prepareStatement(sql);
+        return statements.prepare(connection, sql);
+    }
+
+    static NotificationMessage getNotificationMessageFromResults(ResultSet results) throws SQLException {
         return new NotificationMessage(
                 results.getString("guild"),
                 results.getString("channel"),
@@ -0,0 +1,136 @@
+/*
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ *
+ * Copyright (c) 2022 Meindert Kempe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.mkempe.mkJDABot;
+
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * The SQL differences between supported databases. Everything else is written in SQL all of them accept.
+ */
+public enum Dialect {
+    /**
+     * A local file, for a single node. The default.
+     */
+    SQLITE("jdbc:sqlite:", false, true, 1),
+    /**
+     * Run in PostgreSQL mode. With AUTO_SERVER=TRUE several processes on one machine can share a file.
+     */
+    H2("jdbc:h2:", true, false, 10),
+    POSTGRES("jdbc:postgresql:", true, true, 10);
+
+    private static final Pattern BLOB = Pattern.compile("\\bBLOB\\b");
+    private static final Pattern DATETIME = Pattern.compile("\\bDATETIME\\b");
+    // VALUE is a keyword in H2, but a column of settings.
+    private static final String H2_OPTIONS = ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=VALUE";
+
+    private final String prefix;
+    private final boolean shared;
+    private final boolean returning;
+    private final int connections;
+
+    Dialect(String prefix, boolean shared, boolean returning, int connections) {
+        this.prefix = prefix;
+        this.shared = shared;
+        this.returning = returning;
+        this.connections = connections;
+    }
+
+    public static Dialect fromUrl(String url) {
+        for (Dialect dialect : values()) {
+            if (url.startsWith(dialect.prefix)) return dialect;
+        }
+        throw new IllegalArgumentException("Unsupported database: " + url);
+    }
+
+    /**
+     * @return the url with the connection options this dialect relies on.
+     */
+    public String configure(String url) {
+        if (this != H2 || url.toUpperCase(Locale.ROOT).contains(";MODE=")) return url;
+        return url + H2_OPTIONS;
+    }
+
+    /**
+     * Rewrites DDL written for SQLite: DATETIME and BLOB have no equivalent of the same name elsewhere.
+     */
+    public String ddl(String sql) {
+        if (this == SQLITE) return sql;
+        sql = DATETIME.matcher(sql).replaceAll("TIMESTAMP WITH TIME ZONE");
+        return BLOB.matcher(sql).replaceAll("BYTEA");
+    }
+
+    /**
+     * @return an upsert of a setting, with the name and value as parameters.
+     */
+    public String upsertSetting() {
+        if (this == H2) return "MERGE INTO settings (name, value) KEY (name) VALUES (?, ?);";
+        return "INSERT INTO settings (name, value) VALUES (?, ?) ON CONFLICT (name) DO UPDATE SET value = excluded.value;";
+    }
+
+    /**
+     * @return the expression, collated so that it sorts in the order of {@link #compare}.
+     */
+    public String binary(String expression) {
+        return this == POSTGRES ? expression + " COLLATE \"C\"" : expression;
+    }
+
+    /**
+     * Compares strings the way this database orders them under {@link #binary}: by code point, except for H2,
+     * which compares UTF-16 code units as {@link String#compareTo} does.
+     */
+    public int compare(String a, String b) {
+        if (this == H2) return a.compareTo(b);
+
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int x = a.codePointAt(i);
+            int y = b.codePointAt(j);
+            if (x != y) return Integer.compare(x, y);
+            i += Character.charCount(x);
+            j += Character.charCount(y);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+
+    /**
+     * @return whether other processes may change the database, so rows cannot be cached and names not indexed
+     * from local writes alone.
+     */
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * @return whether UPDATE and DELETE support RETURNING.
+     */
+    public boolean hasReturning() {
+        return returning;
+    }
+
+    /**
+     * @return size of the pool that writes go through. SQLite allows one writer at a time.
+     */
+    public int getConnections() {
+        return connections;
+    }
+}
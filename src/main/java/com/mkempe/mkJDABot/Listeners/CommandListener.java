@@ -21,39 +21,76 @@
 package com.mkempe.mkJDABot.Listeners;
 
 import com.github.kagkarlsson.scheduler.exceptions.TaskInstanceNotFoundException;
+import com.github.kagkarlsson.scheduler.task.SchedulableInstance;
 import com.github.kagkarlsson.scheduler.task.TaskInstanceId;
-import com.github.kagkarlsson.scheduler.task.schedule.PersistentCronSchedule;
-import com.github.kagkarlsson.shaded.cronutils.model.CronType;
-import com.github.kagkarlsson.shaded.cronutils.model.definition.CronDefinitionBuilder;
-import com.github.kagkarlsson.shaded.cronutils.parser.CronParser;
+import com.github.kagkarlsson.scheduler.task.helper.ScheduleAndData;
 import com.mkempe.mkJDABot.Bot;
+import com.mkempe.mkJDABot.CronCache;
 import com.mkempe.mkJDABot.Database;
+import com.mkempe.mkJDABot.Metrics;
 import com.mkempe.mkJDABot.NotificationMessage;
+import com.mkempe.mkJDABot.NotificationSchedule;
+import com.mkempe.mkJDABot.SchedulePage;
+import com.mkempe.mkJDABot.Settings;
+import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.entities.Role;
 import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.entities.UserSnowflake;
 import net.dv8tion.jda.api.entities.channel.Channel;
 import net.dv8tion.jda.api.entities.channel.ChannelType;
 import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
 import net.dv8tion.jda.api.events.interaction.command.CommandAutoCompleteInteractionEvent;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
+import net.dv8tion.jda.api.events.interaction.component.ButtonInteractionEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import net.dv8tion.jda.api.interactions.callbacks.IDeferrableCallback;
 import net.dv8tion.jda.api.interactions.commands.OptionMapping;
 import net.dv8tion.jda.api.interactions.commands.OptionType;
 import net.dv8tion.jda.api.interactions.commands.build.CommandData;
 import net.dv8tion.jda.api.interactions.commands.build.Commands;
 import net.dv8tion.jda.api.interactions.commands.build.OptionData;
+import net.dv8tion.jda.api.interactions.components.ActionRow;
+import net.dv8tion.jda.api.interactions.components.buttons.Button;
+import net.dv8tion.jda.api.requests.RestAction;
+import net.dv8tion.jda.api.utils.TimeFormat;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.DateTimeException;
+import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 public class CommandListener extends ListenerAdapter {
+    private static final int PREVIEW_DEFAULT = 5;
+    private static final int PREVIEW_MAX = 20;
+    private static final int PAGE_SIZE = 5;
+    private static final String PAGE_BUTTON = "page";
+    // Interactions whose command is running, flagged once a follow-up was sent, so a handler that finishes after
+    // its timeout does not reply a second time.
+    private static final Map<String, AtomicBoolean> running = new ConcurrentHashMap<>();
     private final Logger logger = LoggerFactory.getLogger(CommandListener.class);
+    // Only set when commands run on virtual threads instead of JDA's event thread.
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final long timeout;
+
+    public CommandListener() {
+        Settings settings = Settings.getInstance();
+        this.timeout = settings.getInt(Settings.COMMAND_TIMEOUT, 10_000);
+        this.permits = new Semaphore(Math.max(1, settings.getInt(Settings.COMMAND_CONCURRENCY, 64)));
+
+        this.executor = settings.get(Settings.COMMAND_EXECUTOR, "event").equals("virtual")
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : null;
+    }
 
     public static List<CommandData> getCommands() {
         List<CommandData> list = new ArrayList<>();
@@ -63,7 +100,8 @@ public class CommandListener extends ListenerAdapter {
                         .addOptions(
                                 new OptionData(OptionType.STRING, "message", "Message to send", true, false),
                                 new OptionData(OptionType.CHANNEL, "channel", "Channel to notify", true, false),
-                                new OptionData(OptionType.STRING, "name", "Name of notification", true, false),
+                                new OptionData(OptionType.STRING, "name", "Name of notification", true, false)
+                                        .setMaxLength(NotificationMessage.NAME_MAX),
                                 new OptionData(OptionType.ROLE, "role", "Role to notify", true, false),
                                 new OptionData(OptionType.STRING, "cron", "Cron schedule", true, false)
 //TODO find method to stop tasks (cancel doesn't work during task execution).
@@ -73,20 +111,21 @@ public class CommandListener extends ListenerAdapter {
                 Commands.slash("unschedule", "Unschedule message")
                         .addOptions(
                                 new OptionData(OptionType.CHANNEL, "channel", "Channel of notification", true, false),
-                                new OptionData(OptionType.STRING, "name", "Name of notification", true, false)
+                                new OptionData(OptionType.STRING, "name", "Name of notification", true, true)
                         ));
         list.add(
                 Commands.slash("showscheduled", "List scheduled messages")
                         .addOptions(
                                 new OptionData(OptionType.CHANNEL, "channel", "Channel of notification", false, false),
-                                new OptionData(OptionType.STRING, "name", "Name of notification", false, false)
+                                new OptionData(OptionType.STRING, "name", "Name of notification", false, true)
                         ));
         list.add(
                 Commands.slash("reminder", "Schedule one time reminder")
                         .addOptions(
                                 new OptionData(OptionType.STRING, "message", "Message to send", true, false),
                                 new OptionData(OptionType.CHANNEL, "channel", "Channel to notify", true, false),
-                                new OptionData(OptionType.STRING, "name", "Name of notification", true, false),
+                                new OptionData(OptionType.STRING, "name", "Name of notification", true, false)
+                                        .setMaxLength(NotificationMessage.NAME_MAX),
                                 new OptionData(OptionType.ROLE, "role", "Role to notify", true, false),
                                 new OptionData(OptionType.INTEGER, "year", "Year", false, false),
                                 new OptionData(OptionType.INTEGER, "month", "Month", false, false),
@@ -94,28 +133,99 @@ public class CommandListener extends ListenerAdapter {
                                 new OptionData(OptionType.INTEGER, "hour", "Day", false, false),
                                 new OptionData(OptionType.INTEGER, "minute", "Day", false, false)
                         ));
+        list.add(
+                Commands.slash("cronpreview", "Show when a cron schedule would fire")
+                        .addOptions(
+                                new OptionData(OptionType.STRING, "cron", "Cron schedule", true, false),
+                                new OptionData(OptionType.INTEGER, "count", "Number of fire times to show", false, false)
+                                        .setRequiredRange(1, PREVIEW_MAX)
+                        ));
         return list;
     }
 
     @Override
     public void onSlashCommandInteraction(@NotNull SlashCommandInteractionEvent event) {
-        switch (event.getName()) {
-            case "ping" -> pingCommand(event);
+        // Ping measures the round trip of its own reply, so it is answered straight away.
+        if (event.getName().equals("ping")) {
+            pingCommand(event);
+            return;
+        }
+
+        event.deferReply(true).queue();
+        run(event, event.getName(), () -> handleCommand(event));
+    }
+
+    /**
+     * Runs a handler under the concurrency limit and timeout, recording its latency as {@code command}.
+     * The interaction must have been deferred already.
+     */
+    private void run(IDeferrableCallback event, String command, Supplier<CompletableFuture<Void>> handler) {
+        Metrics metrics = Metrics.getInstance();
+
+        if (!permits.tryAcquire()) {
+            metrics.counter("mkjdabot_command_rejected_total", "Commands rejected because too many were running",
+                    "command", command).increment();
+            reply(event, "Failed: too many commands running, try again later");
+            return;
+        }
+
+        // Handlers only validate input on the calling thread and hand database work to the
+        // database's I/O threads, so the latency recorded here covers the whole command.
+        long start = System.nanoTime();
+        running.put(event.getId(), new AtomicBoolean());
+        CompletableFuture<Void> handled = CompletableFuture
+                .supplyAsync(handler, executor == null ? Runnable::run : executor)
+                .thenCompose(future -> future);
+
+        // The permit is held until the handler is done, also after a timeout, so the concurrency limit holds.
+        handled.whenComplete((result, error) -> {
+            metrics.histogram("mkjdabot_command_seconds", "Time from receiving a command until it completed",
+                    "command", command).record(System.nanoTime() - start);
+            permits.release();
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                metrics.counter("mkjdabot_command_failures_total", "Commands that failed with an exception",
+                        "command", command).increment();
+                logger.warn("Command {} failed", command, cause);
+                reply(event, "Failed: internal error");
+            }
+            running.remove(event.getId());
+        });
+
+        handled.copy().orTimeout(timeout, TimeUnit.MILLISECONDS).whenComplete((result, error) -> {
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            if (!(cause instanceof TimeoutException)) return;
+
+            metrics.counter("mkjdabot_command_timeouts_total", "Commands that did not complete in time",
+                    "command", command).increment();
+            reply(event, "Failed: command timed out");
+        });
+    }
+
+    private CompletableFuture<Void> handleCommand(SlashCommandInteractionEvent event) {
+        return switch (event.getName()) {
             case "schedule" -> scheduleCommand(event);
             case "unschedule" -> unscheduleCommand(event);
             case "showscheduled" -> showscheduledCommand(event);
             case "reminder" -> reminderCommand(event);
+            case "cronpreview" -> cronpreviewCommand(event);
             default -> unknownCommand(event);
-        }
+        };
     }
 
-    private void showscheduledCommand(SlashCommandInteractionEvent event) {
-        event.deferReply().setEphemeral(true).queue();
+    /**
+     * Stops the command executor, if any, interrupting handlers that are still running.
+     */
+    public void shutdown() {
+        if (executor == null) return;
 
+        executor.shutdownNow();
+    }
+
+    private CompletableFuture<Void> showscheduledCommand(SlashCommandInteractionEvent event) {
         Guild guild;
         if ((guild = event.getGuild()) == null) {
-            event.getHook().sendMessage("Failed: command only works on servers").queue();
-            return;
+            return replied(event, "Failed: command only works on servers");
         }
 
         String channel = null;
@@ -128,23 +238,84 @@ public class CommandListener extends ListenerAdapter {
             }
         }
 
-        ArrayList<NotificationMessage> messages = Database.getInstance().getSchedules(guild.getId(), channel, name);
-        StringBuilder builder = new StringBuilder();
-        if (messages.size() == 0) {
-            event.getHook().sendMessage("No notifications scheduled").queue();
-            return;
-        }
+        String channelFilter = channel;
+        boolean byName = name != null;
+        return Database.getInstance()
+                .getSchedulesPageAsync(guild.getId(), channel, name, null, null, false, PAGE_SIZE)
+                .thenAccept(page -> reply(event, () -> event.getHook()
+                        .sendMessage(formatPage(page, event.getJDA()))
+                        .addComponents(pageButtons(channelFilter, byName, page))));
+    }
 
+    @Override
+    public void onButtonInteraction(@NotNull ButtonInteractionEvent event) {
+        if (!event.getComponentId().startsWith(PAGE_BUTTON + ":")) return;
+
+        event.deferEdit().queue();
+        run(event, PAGE_BUTTON, () -> pageCommand(event));
+    }
+
+    private CompletableFuture<Void> pageCommand(ButtonInteractionEvent event) {
+        // page:<p|n>:<channel filter>:<1 if filtered by name>:<cursor channel>:<cursor name>
+        String[] parts = event.getComponentId().split(":", 6);
+        Guild guild = event.getGuild();
+        if (guild == null || parts.length != 6) return CompletableFuture.completedFuture(null);
+
+        boolean backward = parts[1].equals("p");
+        String channel = parts[2].isEmpty() ? null : parts[2];
+        boolean byName = parts[3].equals("1");
+        String name = byName ? parts[5] : null;
+
+        Database database = Database.getInstance();
+        return database.getSchedulesPageAsync(guild.getId(), channel, name, parts[4], parts[5], backward, PAGE_SIZE)
+                // Rows of this page were removed since it was shown, start over.
+                .thenCompose(page -> page.isEmpty()
+                        ? database.getSchedulesPageAsync(guild.getId(), channel, name, null, null, false, PAGE_SIZE)
+                        : CompletableFuture.completedFuture(page))
+                .thenAccept(page -> reply(event, () -> event.getHook()
+                        .editOriginal(formatPage(page, event.getJDA()))
+                        .setComponents(pageButtons(channel, byName, page))));
+    }
+
+    private static String formatPage(SchedulePage page, JDA jda) {
+        if (page.isEmpty()) return "No notifications scheduled";
+
+        String text = formatSchedules(page.messages(), jda);
+        if (text.length() > Message.MAX_CONTENT_LENGTH)
+            text = text.substring(0, Message.MAX_CONTENT_LENGTH - 3) + "...";
+        return text;
+    }
+
+    private static List<ActionRow> pageButtons(String channel, boolean byName, SchedulePage page) {
+        if (!page.hasPrevious() && !page.hasNext()) return List.of();
+
+        Button previous = Button.secondary(PAGE_BUTTON + ":p", "Previous").asDisabled();
+        Button next = Button.secondary(PAGE_BUTTON + ":n", "Next").asDisabled();
+        if (page.hasPrevious())
+            previous = pageButton(previous, "p", channel, byName, page.first());
+        if (page.hasNext())
+            next = pageButton(next, "n", channel, byName, page.last());
+        return List.of(ActionRow.of(previous, next));
+    }
+
+    private static Button pageButton(Button disabled, String direction, String channel, boolean byName,
+                                     NotificationMessage cursor) {
+        String id = String.join(":", PAGE_BUTTON, direction, channel == null ? "" : channel, byName ? "1" : "0",
+                cursor.channel(), cursor.name());
+        // Names from before NAME_MAX was enforced can be too long to fit.
+        if (id.length() > Button.ID_MAX_LENGTH) return disabled;
+        return disabled.withId(id).asEnabled();
+    }
+
+    static String formatSchedules(List<NotificationMessage> messages, JDA jda) {
+        StringBuilder builder = new StringBuilder();
         for (NotificationMessage message : messages) {
             builder.append("Name:      ").append(message.name()).append("\n");
-            User u = Bot.getInstance().getJDA().getUserById(message.user());
-            Channel c = Bot.getInstance().getJDA().getChannelById(MessageChannel.class, message.channel());
-            Role r = Bot.getInstance().getJDA().getRoleById(message.role());
+            Channel c = jda.getChannelById(MessageChannel.class, message.channel());
+            Role r = jda.getRoleById(message.role());
 
-            builder.append("By:        ");
-            if (u == null) builder.append(message.user());
-            else builder.append(u.getAsMention());
-            builder.append("\n");
+            // Mentions by id render without the user being cached, which it is not without member caching.
+            builder.append("By:        ").append(UserSnowflake.fromId(message.user()).getAsMention()).append("\n");
 
             builder.append("Channel:   ");
             if (c == null) builder.append(message.channel());
@@ -161,16 +332,13 @@ public class CommandListener extends ListenerAdapter {
                 builder.append("Count:     ").append(message.count()).append("/").append(message.countMax());
             builder.append("Message:   ").append(message.message().replace("\\n", "\n")).append("\n\n");
         }
-        event.getHook().sendMessage(builder.toString()).queue();
+        return builder.toString();
     }
 
-    private void scheduleCommand(SlashCommandInteractionEvent event) {
-        event.deferReply().setEphemeral(true).queue();
-
+    private CompletableFuture<Void> scheduleCommand(SlashCommandInteractionEvent event) {
         Guild guild;
         if ((guild = event.getGuild()) == null) {
-            event.getHook().sendMessage("Failed: command only works on servers").queue();
-            return;
+            return replied(event, "Failed: command only works on servers");
         }
 
         User user = event.getUser();
@@ -197,29 +365,15 @@ public class CommandListener extends ListenerAdapter {
         }
 
         if (channel == null || channelType == null || name == null || role == null || message == null || cron == null) {
-            event.getHook().sendMessage("Failed: missing options").queue();
-            return;
-        }
-
-        if (Database.getInstance().getSchedule(guild.getId(), channel.getId(), name) != null) {
-            event.getHook().sendMessage("Failed: notification task already exists").queue();
-            return;
-        }
-
-        if (Bot.getInstance().getJDA().getChannelById(MessageChannel.class, channel.getId()) == null) {
-            event.getHook().sendMessage("Failed: select text channel").queue();
-            return;
+            return replied(event, "Failed: missing options");
         }
 
-        try {
-            CronParser parser = new CronParser(CronDefinitionBuilder.instanceDefinitionFor(CronType.SPRING));
-            parser.parse(cron);
-        } catch (IllegalArgumentException e) {
-            event.getHook().sendMessage("Failed: invalid cron syntax").queue();
-            return;
+        if (event.getJDA().getChannelById(MessageChannel.class, channel.getId()) == null) {
+            return replied(event, "Failed: select text channel");
         }
 
-        Database.getInstance().insertSchedule(new NotificationMessage(guild.getId(),
+        Database database = Database.getInstance();
+        NotificationMessage notification = new NotificationMessage(guild.getId(),
                 channel.getId(),
                 channelType.getId(),
                 name,
@@ -229,31 +383,41 @@ public class CommandListener extends ListenerAdapter {
                 NotificationMessage.notifyTask.getName(),
                 countMax,
                 0,
-                user.getId()));
-
-        Bot.getInstance().getScheduler().schedule(NotificationMessage.notifyTask.schedulableInstance(
-                guild.getId() + ":" + channel.getId() + ":" + name,
-                new PersistentCronSchedule(cron)
-        ));
-
-        event.getHook().sendMessage(
-                "Set notification\n" +
-                        "Channel: " + channel.getAsMention() + "\n" +
-                        "Role:    " + role.getAsMention() + "\n" +
-                        "Message: " + message + "\n" +
-                        "Cron:    " + cron +
-                        (countMax == NotificationMessage.COUNTNONE ? "" : "\nCount:   " + countMax)
-        ).queue();
-    }
+                user.getId());
+        try {
+            notification.validate();
+        } catch (IllegalArgumentException e) {
+            return replied(event, "Failed: " + e.getMessage());
+        }
+        String reply = "Set notification\n" +
+                "Channel: " + channel.getAsMention() + "\n" +
+                "Role:    " + role.getAsMention() + "\n" +
+                "Message: " + message + "\n" +
+                "Cron:    " + cron +
+                (countMax == NotificationMessage.COUNTNONE ? "" : "\nCount:   " + countMax);
+
+        return database.getScheduleAsync(guild.getId(), channel.getId(), name).thenCompose(existing -> {
+            if (existing != null) {
+                return replied(event, "Failed: notification task already exists");
+            }
 
-    private void unscheduleCommand(SlashCommandInteractionEvent event) {
-        event.deferReply().setEphemeral(true).queue();
+            return database.insertScheduleAsync(notification).thenRun(() -> {
+                SchedulableInstance<ScheduleAndData> instance = NotificationMessage.notifyTask.schedulableInstance(
+                        notification.instanceId(),
+                        new NotificationSchedule(notification.schedule(), notification)
+                );
+                Bot.getInstance().getScheduler().schedule(instance);
+                Bot.getInstance().scheduled(instance.getNextExecutionTime(Instant.now()));
+                reply(event, reply);
+            });
+        });
+    }
 
+    private CompletableFuture<Void> unscheduleCommand(SlashCommandInteractionEvent event) {
         Guild guild;
 
         if ((guild = event.getGuild()) == null) {
-            event.getHook().sendMessage("Failed: command only works on servers").queue();
-            return;
+            return replied(event, "Failed: command only works on servers");
         }
 
         Channel channel = null;
@@ -267,41 +431,41 @@ public class CommandListener extends ListenerAdapter {
         }
 
         if (channel == null || name == null) {
-            event.getHook().sendMessage("Failed: missing option").queue();
-            return;
+            return replied(event, "Failed: missing option");
         }
 
-        NotificationMessage message;
-        if ((message = Database.getInstance().getSchedule(guild.getId(), channel.getId(), name)) == null) {
-            event.getHook().sendMessage("Failed: invalid name or channel").queue();
-            return;
-        }
+        Database database = Database.getInstance();
+        String guildId = guild.getId();
+        String channelId = channel.getId();
+        String removed = "Removed notification: " + name + "\n" +
+                "From channel: " + channel.getAsMention();
+        String notificationName = name;
 
-        Database.getInstance().deleteSchedule(guild.getId(), channel.getId(), name);
+        return database.getScheduleAsync(guildId, channelId, name).thenCompose(message -> {
+            if (message == null) {
+                return replied(event, "Failed: invalid name or channel");
+            }
 
-        try {
-            Bot.getInstance().getScheduler().cancel(TaskInstanceId.of(
-                    message.taskType(),
-                    guild.getId() + ":" + channel.getId() + ":" + name
-            ));
-        } catch (TaskInstanceNotFoundException e) {
-            event.getHook().sendMessage("Warning: Possibly failed to stop schedule\n" +
-                    "Removed notification: " + name + "\n" +
-                    "From channel: " + channel.getAsMention()).queue();
-            return;
-        }
+            return database.deleteScheduleAsync(guildId, channelId, notificationName).thenRun(() -> {
+                try {
+                    Bot.getInstance().getScheduler().cancel(TaskInstanceId.of(
+                            message.taskType(),
+                            guildId + ":" + channelId + ":" + notificationName
+                    ));
+                } catch (TaskInstanceNotFoundException e) {
+                    reply(event, "Warning: Possibly failed to stop schedule\n" + removed);
+                    return;
+                }
 
-        event.getHook().sendMessage("Removed notification: " + name + "\n" +
-                "From channel: " + channel.getAsMention()).queue();
+                reply(event, removed);
+            });
+        });
     }
 
-    private void reminderCommand(SlashCommandInteractionEvent event) {
-        event.deferReply().setEphemeral(true).queue();
-
+    private CompletableFuture<Void> reminderCommand(SlashCommandInteractionEvent event) {
         Guild guild;
         if ((guild = event.getGuild()) == null) {
-            event.getHook().sendMessage("Failed: command only works on servers").queue();
-            return;
+            return replied(event, "Failed: command only works on servers");
         }
 
         User user = event.getUser();
@@ -336,8 +500,7 @@ public class CommandListener extends ListenerAdapter {
         }
 
         if (channel == null || channelType == null || name == null || role == null || message == null) {
-            event.getHook().sendMessage("Failed: missing option").queue();
-            return;
+            return replied(event, "Failed: missing option");
         }
 
         zone = ZoneId.systemDefault();
@@ -349,25 +512,19 @@ public class CommandListener extends ListenerAdapter {
         hour = hour == null ? timeNow.getHour() : hour;
         minute = minute == null ? timeNow.getMinute() : minute;
 
-        if (Database.getInstance().getSchedule(guild.getId(), channel.getId(), name) != null) {
-            event.getHook().sendMessage("Failed: notification task already exists").queue();
-            return;
-        }
-
-        if (Bot.getInstance().getJDA().getChannelById(MessageChannel.class, channel.getId()) == null) {
-            event.getHook().sendMessage("Failed: select text channel").queue();
-            return;
+        if (event.getJDA().getChannelById(MessageChannel.class, channel.getId()) == null) {
+            return replied(event, "Failed: select text channel");
         }
 
         ZonedDateTime time;
         try {
             time = ZonedDateTime.of(year, month, day, hour, minute, 0, 0, zone);
         } catch (DateTimeException e) {
-            event.getHook().sendMessage("Failed: invalid time").queue();
-            return;
+            return replied(event, "Failed: invalid time");
         }
 
-        Database.getInstance().insertSchedule(new NotificationMessage(guild.getId(),
+        Database database = Database.getInstance();
+        NotificationMessage notification = new NotificationMessage(guild.getId(),
                 channel.getId(),
                 channelType.getId(),
                 name,
@@ -378,24 +535,99 @@ public class CommandListener extends ListenerAdapter {
                 NotificationMessage.COUNTNONE,
                 0,
                 user.getId()
-        ));
-
-        Bot.getInstance().getScheduler().schedule(
-                NotificationMessage.reminderTask.instance(guild.getId() + ":" + channel.getId() + ":" + name),
-                time.toInstant()
         );
+        try {
+            notification.validate();
+        } catch (IllegalArgumentException e) {
+            return replied(event, "Failed: " + e.getMessage());
+        }
+        Instant fireTime = time.toInstant();
+        String reply = "Set notification\n" +
+                "Channel:   " + channel.getAsMention() + "\n" +
+                "Role:      " + role.getAsMention() + "\n" +
+                "Message:   " + message + "\n" +
+                "Scheduled: " + time;
+
+        return database.getScheduleAsync(guild.getId(), channel.getId(), name).thenCompose(existing -> {
+            if (existing != null) {
+                return replied(event, "Failed: notification task already exists");
+            }
 
-        event.getHook().sendMessage(
-                "Set notification\n" +
-                        "Channel:   " + channel.getAsMention() + "\n" +
-                        "Role:      " + role.getAsMention() + "\n" +
-                        "Message:   " + message + "\n" +
-                        "Scheduled: " + time
-        ).queue();
+            return database.insertScheduleAsync(notification).thenRun(() -> {
+                Bot.getInstance().getScheduler().schedule(
+                        NotificationMessage.reminderTask.instance(
+                                notification.instanceId(),
+                                notification),
+                        fireTime
+                );
+                Bot.getInstance().scheduled(fireTime);
+                reply(event, reply);
+            });
+        });
     }
 
-    private void unknownCommand(SlashCommandInteractionEvent event) {
-        event.reply("Unknown command").setEphemeral(true).queue();
+    private CompletableFuture<Void> cronpreviewCommand(SlashCommandInteractionEvent event) {
+        String cron = null;
+        int count = PREVIEW_DEFAULT;
+
+        for (OptionMapping option : event.getOptions()) {
+            switch (option.getName()) {
+                case "cron" -> cron = option.getAsString();
+                case "count" -> count = option.getAsInt();
+            }
+        }
+
+        if (cron == null) {
+            return replied(event, "Failed: missing option");
+        }
+
+        List<ZonedDateTime> times;
+        try {
+            times = CronCache.getInstance().nextExecutions(cron, ZonedDateTime.now(ZoneId.systemDefault()),
+                    Math.max(1, Math.min(count, PREVIEW_MAX)));
+        } catch (IllegalArgumentException e) {
+            return replied(event, "Failed: invalid cron syntax");
+        }
+
+        if (times.isEmpty()) {
+            return replied(event, "Cron schedule never fires");
+        }
+
+        StringBuilder builder = new StringBuilder("Next fire times for `").append(cron).append("`:\n");
+        for (ZonedDateTime time : times) {
+            builder.append(TimeFormat.DATE_TIME_LONG.atInstant(time.toInstant()))
+                    .append(" (").append(TimeFormat.RELATIVE.atInstant(time.toInstant())).append(")\n");
+        }
+        return replied(event, builder.toString());
+    }
+
+    /**
+     * Sends a follow-up to a deferred interaction through the dispatcher.
+     */
+    private static void reply(IDeferrableCallback event, String message) {
+        // A deferred edit's follow-up is public by default, but it answers an ephemeral listing.
+        reply(event, () -> event.getHook().setEphemeral(true).sendMessage(message));
+    }
+
+    /**
+     * Sends the follow-up of a running command, unless one was sent already.
+     */
+    private static void reply(IDeferrableCallback event, Supplier<? extends RestAction<?>> action) {
+        AtomicBoolean replied = running.get(event.getId());
+        if (replied != null && replied.getAndSet(true)) return;
+        Bot.getInstance().getDispatcher().submit("interaction:" + event.getId(), action);
+    }
+
+    /**
+     * Replies and completes the handler straight away, for paths that need no database work.
+     */
+    private static CompletableFuture<Void> replied(SlashCommandInteractionEvent event, String message) {
+        reply(event, message);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private CompletableFuture<Void> unknownCommand(SlashCommandInteractionEvent event) {
+        return replied(event, "Unknown command");
     }
 
     private void pingCommand(SlashCommandInteractionEvent event) {
@@ -408,5 +640,19 @@ public class CommandListener extends ListenerAdapter {
 
     @Override
     public void onCommandAutoCompleteInteraction(@NotNull CommandAutoCompleteInteractionEvent event) {
+        Guild guild = event.getGuild();
+        if (guild == null || !event.getFocusedOption().getName().equals("name")) {
+            event.replyChoices().queue();
+            return;
+        }
+
+        // Autocomplete only carries the raw channel id, the channel itself is not resolved yet.
+        OptionMapping channel = event.getOption("channel");
+        event.replyChoiceStrings(Database.getInstance().getNames().complete(
+                guild.getId(),
+                channel == null ? null : channel.getAsString(),
+                event.getFocusedOption().getValue(),
+                OptionData.MAX_CHOICES
+        )).queue();
     }
 }
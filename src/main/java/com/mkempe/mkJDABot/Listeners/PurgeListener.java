@@ -0,0 +1,68 @@
+/*
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ *
+ * Copyright (c) 2022 Meindert Kempe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.mkempe.mkJDABot.Listeners;
+
+import com.mkempe.mkJDABot.Database;
+import com.mkempe.mkJDABot.Metrics;
+import net.dv8tion.jda.api.events.channel.ChannelDeleteEvent;
+import net.dv8tion.jda.api.events.guild.GuildLeaveEvent;
+import net.dv8tion.jda.api.events.role.RoleDeleteEvent;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Removes the notifications, and their scheduled tasks, that can no longer be sent because their channel, role or
+ * guild is gone. Without this they keep firing and returning without a message.
+ */
+public class PurgeListener extends ListenerAdapter {
+    private static final Logger logger = LoggerFactory.getLogger(PurgeListener.class);
+
+    @Override
+    public void onChannelDelete(@NotNull ChannelDeleteEvent event) {
+        if (!event.isFromGuild()) return;
+        purge("channel", event.getGuild().getId(), event.getChannel().getId(), null);
+    }
+
+    @Override
+    public void onRoleDelete(@NotNull RoleDeleteEvent event) {
+        purge("role", event.getGuild().getId(), null, event.getRole().getId());
+    }
+
+    @Override
+    public void onGuildLeave(@NotNull GuildLeaveEvent event) {
+        purge("guild", event.getGuild().getId(), null, null);
+    }
+
+    private void purge(String reason, String guild, String channel, String role) {
+        Database.getInstance().purgeSchedulesAsync(guild, channel, role).whenComplete((purged, e) -> {
+            if (e != null) {
+                logger.warn("Failed to purge notifications of deleted {} in guild {}", reason, guild, e);
+                return;
+            }
+            Metrics.getInstance().counter("mkjdabot_purged_total",
+                    "Notifications removed because their channel, role or guild went away", "reason", reason)
+                    .add(purged);
+            logger.info("Purged {} notifications of deleted {} in guild {}", purged, reason, guild);
+        });
+    }
+}
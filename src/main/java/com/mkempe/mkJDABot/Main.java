@@ -21,8 +21,12 @@
 package com.mkempe.mkJDABot;
 
 
+import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.exceptions.InvalidTokenException;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.Scanner;
 
 public class Main {
@@ -30,6 +34,7 @@ public class Main {
     private static Bot bot;
     private static Settings settings;
     private static Database database;
+    private static MetricsServer metricsServer;
 
     public static void main(String[] args) {
 
@@ -43,6 +48,11 @@ public class Main {
             if (bot.isRunning())
                 bot.stop();
 
+            if (metricsServer != null)
+                metricsServer.stop();
+
+            // Persist buffered notification counts before the connection goes away.
+            database.flushCounts();
             database.close();
         }));
 
@@ -54,6 +64,16 @@ public class Main {
             queryAPIKey();
         }
 
+        int metricsPort = settings.getInt(Settings.METRICS_PORT, 0);
+        if (metricsPort > 0) {
+            try {
+                metricsServer = new MetricsServer(metricsPort);
+                System.out.println("Serving metrics on http://localhost:" + metricsServer.getPort() + "/metrics");
+            } catch (IOException e) {
+                System.out.println("Failed to serve metrics on port " + metricsPort + ": " + e.getMessage());
+            }
+        }
+
 
         boolean notRunning = true;
         while (notRunning) {
@@ -77,6 +97,12 @@ public class Main {
                         stop    - Stop bot
                         restart - Restart bot
                         key     - Set api key
+                        set     - Change a setting
+                        stats   - Show metrics
+                        shards  - Show gateway sessions
+                        export  - Write notifications to an NDJSON file
+                        import  - Add notifications from an NDJSON file
+                        reconcile - Repair notifications and scheduled tasks that drifted apart
                         quit    - Stop bot and exit program
                         """
                 );
@@ -84,12 +110,74 @@ public class Main {
                 case "stop" -> bot.stop();
                 case "restart" -> bot.restart();
                 case "key" -> queryAPIKey();
+                case "set" -> querySetting();
+                case "stats" -> printStats();
+                case "shards" -> printShards();
+                case "export" -> exportSchedules();
+                case "import" -> importSchedules();
+                case "reconcile" -> reconcileSchedules();
                 case "exit", "quit" -> System.exit(0);
                 default -> System.out.println("Unknown command, try 'help'");
             }
         }
     }
 
+    private static void printStats() {
+        System.out.print(Metrics.getInstance().toText());
+    }
+
+    private static void printShards() {
+        if (!bot.isRunning()) {
+            System.out.println("Bot not running");
+            return;
+        }
+        for (JDA shard : bot.getShards()) {
+            System.out.printf("Shard %-8s %-24s ping %4d ms  %d guilds%n", shard.getShardInfo().getShardString(),
+                    shard.getStatus(), shard.getGatewayPing(), shard.getGuildCache().size());
+        }
+    }
+
+    private static void exportSchedules() {
+        System.out.print("File: ");
+        ScheduleTransfer.Result result;
+        try {
+            result = ScheduleTransfer.exportTo(Path.of(scanner.nextLine().trim()));
+        } catch (UncheckedIOException e) {
+            System.out.println("Failed: " + e.getCause().getMessage());
+            return;
+        }
+        System.out.printf("Exported %d notifications in %.1f s (%.0f/s)%n",
+                result.records(), result.nanos() / 1e9, result.perSecond());
+    }
+
+    private static void importSchedules() {
+        System.out.print("File: ");
+        ScheduleTransfer.Result result;
+        try {
+            result = ScheduleTransfer.importFrom(Path.of(scanner.nextLine().trim()));
+        } catch (UncheckedIOException e) {
+            System.out.println("Failed: " + e.getCause().getMessage());
+            return;
+        }
+        System.out.printf("Imported %d notifications in %.1f s (%.0f/s), %d already existed, %d rejected, "
+                        + "%d expired reminders skipped%n", result.records(), result.nanos() / 1e9, result.perSecond(),
+                result.skipped(), result.rejected(), result.expired());
+    }
+
+    private static void reconcileSchedules() {
+        Reconciler.Report report = Reconciler.run(Reconciler.GRACE);
+        System.out.printf("Scheduled %d notifications again, deleted %d expired reminders, cancelled %d tasks "
+                        + "in %.1f s, %d notifications have an invalid schedule%n",
+                report.created(), report.expired(), report.cancelled(), report.nanos() / 1e9, report.invalid());
+    }
+
+    private static void querySetting() {
+        System.out.print("Setting: ");
+        String name = scanner.nextLine().trim();
+        System.out.print("Value: ");
+        settings.set(name, scanner.nextLine().trim());
+    }
+
     private static void queryAPIKey() {
         System.out.print("API Key: ");
         settings.set(Settings.API_KEY, scanner.nextLine());
@@ -0,0 +1,130 @@
+/*
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ *
+ * Copyright (c) 2022 Meindert Kempe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package com.mkempe.mkJDABot;
+
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Groups messages sent to the same channel within a short window and sends them as few messages as fit under
+ * Discord's length limit, so notifications sharing a cron do not each cost a request against the channel's
+ * rate limit. A window of zero sends every message immediately.
+ */
+public class MessageCoalescer {
+    private final MessageDispatcher dispatcher;
+    private final long window;
+    private final ScheduledExecutorService executor;
+    private final Map<String, Batch> batches = new HashMap<>();
+
+    public MessageCoalescer(MessageDispatcher dispatcher, long window) {
+        this.dispatcher = dispatcher;
+        this.window = window;
+        this.executor = window <= 0 ? null : Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void send(MessageChannel channel, String text) {
+        if (executor == null) {
+            dispatcher.submit(channel.getId(), () -> channel.sendMessage(text));
+            return;
+        }
+
+        synchronized (batches) {
+            Batch batch = batches.get(channel.getId());
+            if (batch == null) {
+                batch = new Batch(channel, new ArrayList<>());
+                batches.put(channel.getId(), batch);
+                executor.schedule(() -> flush(channel.getId()), window, TimeUnit.MILLISECONDS);
+            }
+            batch.texts().add(text);
+        }
+    }
+
+    /**
+     * Sends everything still waiting and stops accepting new batches.
+     */
+    public void shutdown() {
+        if (executor == null) return;
+
+        executor.shutdownNow();
+        List<String> channels;
+        synchronized (batches) {
+            channels = new ArrayList<>(batches.keySet());
+        }
+        channels.forEach(this::flush);
+    }
+
+    private void flush(String channelId) {
+        Batch batch;
+        synchronized (batches) {
+            batch = batches.remove(channelId);
+        }
+        if (batch == null) return;
+
+        for (String message : merge(batch.texts(), Message.MAX_CONTENT_LENGTH)) {
+            dispatcher.submit(channelId, () -> batch.channel().sendMessage(message));
+        }
+    }
+
+    /**
+     * Joins texts with new lines into as few messages of at most {@code limit} characters as possible,
+     * keeping each text whole unless it is longer than the limit on its own.
+     */
+    static List<String> merge(List<String> texts, int limit) {
+        List<String> messages = new ArrayList<>();
+        StringBuilder builder = new StringBuilder();
+
+        for (String text : texts) {
+            if (builder.length() > 0 && builder.length() + 1 + text.length() > limit) {
+                messages.add(builder.toString());
+                builder.setLength(0);
+            }
+
+            if (text.length() > limit) {
+                for (int start = 0; start < text.length(); start += limit) {
+                    messages.add(text.substring(start, Math.min(text.length(), start + limit)));
+                }
+                continue;
+            }
+
+            if (builder.length() > 0) builder.append('\n');
+            builder.append(text);
+        }
+
+        if (builder.length() > 0) messages.add(builder.toString());
+        return messages;
+    }
+
+    private record Batch(MessageChannel channel, List<String> texts) {
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ *
+ * Copyright (c) 2022 Meindert Kempe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package com.mkempe.mkJDABot;
+
+import net.dv8tion.jda.api.exceptions.ErrorResponseException;
+import net.dv8tion.jda.api.requests.RestAction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Sends outbound messages through bounded per-channel queues. Each channel has at most one request in flight, so
+ * its messages stay in order and never pile up inside JDA, and at most {@code concurrency} channels send at once.
+ * Failed sends are retried with exponential backoff, unless Discord rejected the request itself.
+ * Callers only enqueue, so they never wait on Discord.
+ */
+public final class MessageDispatcher {
+    private static final long BACKOFF_BASE = 500;
+    private static final long SHUTDOWN_TIMEOUT = 10_000;
+    private final Logger logger = LoggerFactory.getLogger(MessageDispatcher.class);
+    private final int concurrency;
+    private final int queueSize;
+    private final int retries;
+    private final ScheduledExecutorService retryExecutor;
+    // Guarded by this.
+    private final Map<String, ChannelQueue> queues = new HashMap<>();
+    private final Queue<String> ready = new ArrayDeque<>();
+    private int inFlight;
+    private int depth;
+
+    private final Metrics.Counter sent = Metrics.getInstance().counter("mkjdabot_discord_sends_total",
+            "Requests to Discord by outcome", "result", "success");
+    private final Metrics.Counter failed = Metrics.getInstance().counter("mkjdabot_discord_sends_total",
+            "Requests to Discord by outcome", "result", "failure");
+    private final Metrics.Counter retried = Metrics.getInstance().counter("mkjdabot_discord_retries_total",
+            "Requests to Discord retried after a failure");
+    private final Metrics.Counter dropped = Metrics.getInstance().counter("mkjdabot_discord_dropped_total",
+            "Requests to Discord dropped because their queue was full");
+    private final Metrics.Histogram latency = Metrics.getInstance().histogram("mkjdabot_discord_send_seconds",
+            "Time from handing a request to JDA until Discord confirmed it");
+
+    public MessageDispatcher(int concurrency, int queueSize, int retries) {
+        this.concurrency = Math.max(1, concurrency);
+        this.queueSize = Math.max(1, queueSize);
+        this.retries = Math.max(0, retries);
+        this.retryExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Metrics.getInstance().gauge("mkjdabot_discord_queue_depth", "Requests waiting or in flight",
+                this::getQueueDepth);
+        Metrics.getInstance().gauge("mkjdabot_discord_in_flight", "Requests handed to JDA and not yet confirmed",
+                this::getInFlight);
+    }
+
+    /**
+     * Queues a request for sending. The supplier is called for every attempt.
+     *
+     * @param key requests with the same key (usually the channel id) are sent one at a time, in order.
+     * @return false if the queue for this key is full and the request was dropped.
+     */
+    public boolean submit(String key, Supplier<? extends RestAction<?>> action) {
+        synchronized (this) {
+            ChannelQueue queue = queues.computeIfAbsent(key, k -> new ChannelQueue());
+            if (queue.items.size() >= queueSize) {
+                dropped.increment();
+                logger.warn("Send queue for {} is full, dropping message", key);
+                return false;
+            }
+
+            queue.items.add(new Item(action));
+            depth++;
+            if (!queue.active) {
+                queue.active = true;
+                ready.add(key);
+            }
+        }
+
+        pump();
+        return true;
+    }
+
+    /**
+     * Waits for queued messages to be sent, up to a timeout, then stops retrying.
+     */
+    public void shutdown() {
+        long deadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT;
+        synchronized (this) {
+            while (depth > 0 && System.currentTimeMillis() < deadline) {
+                try {
+                    wait(Math.max(1, deadline - System.currentTimeMillis()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (depth > 0) logger.warn("Stopped with {} messages still queued", depth);
+        }
+        retryExecutor.shutdownNow();
+    }
+
+    private void pump() {
+        while (true) {
+            String key;
+            Item item;
+            synchronized (this) {
+                if (inFlight >= concurrency || ready.isEmpty()) return;
+                key = ready.poll();
+                item = queues.get(key).items.peek();
+                inFlight++;
+            }
+            send(key, item);
+        }
+    }
+
+    private void send(String key, Item item) {
+        long start = System.nanoTime();
+        try {
+            item.action.get().queue(
+                    success -> complete(key, start, true),
+                    failure -> fail(key, item, start, failure)
+            );
+        } catch (RuntimeException e) {
+            fail(key, item, start, e);
+        }
+    }
+
+    private void fail(String key, Item item, long start, Throwable failure) {
+        boolean rejected = failure instanceof ErrorResponseException response && !response.isServerError();
+        if (rejected || item.attempts >= retries) {
+            logger.warn("Failed to send message to {}", key, failure);
+            complete(key, start, false);
+            return;
+        }
+
+        long backoff = BACKOFF_BASE << item.attempts++;
+        retried.increment();
+        synchronized (this) {
+            inFlight--;
+        }
+        // The channel stays active while waiting, so later messages do not overtake this one.
+        retryExecutor.schedule(() -> {
+            synchronized (this) {
+                ready.add(key);
+            }
+            pump();
+        }, backoff, TimeUnit.MILLISECONDS);
+        pump();
+    }
+
+    private void complete(String key, long start, boolean success) {
+        if (success) {
+            sent.increment();
+            latency.record(System.nanoTime() - start);
+        } else {
+            failed.increment();
+        }
+
+        synchronized (this) {
+            inFlight--;
+            depth--;
+            ChannelQueue queue = queues.get(key);
+            queue.items.poll();
+            if (queue.items.isEmpty()) queues.remove(key);
+            else ready.add(key);
+            notifyAll();
+        }
+        pump();
+    }
+
+    public synchronized int getQueueDepth() {
+        return depth;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    private static class ChannelQueue {
+        private final Queue<Item> items = new ArrayDeque<>();
+        private boolean active;
+    }
+
+    private static class Item {
+        private final Supplier<? extends RestAction<?>> action;
+        private int attempts;
+
+        private Item(Supplier<? extends RestAction<?>> action) {
+            this.action = action;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ *
+ * Copyright (c) 2022 Meindert Kempe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.mkempe.mkJDABot;
+
+import java.math.BigDecimal;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Registry of counters, latency histograms and gauges, rendered for the console {@code stats} command and in the
+ * Prometheus text format. A metric family has at most one label; each label value gets its own child.
+ */
+public class Metrics {
+    private static final Metrics INSTANCE = new Metrics();
+    private static final String UNLABELED = "";
+    // Upper bounds of the histogram buckets in seconds.
+    private static final double[] BUCKETS = {
+            0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60
+    };
+
+    private enum Type {
+        COUNTER, GAUGE, HISTOGRAM
+    }
+
+    private record Family(String name, String help, Type type, String label, Map<String, Object> children) {
+    }
+
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+
+    }
+
+    public static Metrics getInstance() {
+        return INSTANCE;
+    }
+
+    public Counter counter(String name, String help) {
+        return counter(name, help, null, UNLABELED);
+    }
+
+    public Counter counter(String name, String help, String label, String value) {
+        return (Counter) child(name, help, Type.COUNTER, label, value, Counter::new);
+    }
+
+    public Histogram histogram(String name, String help) {
+        return histogram(name, help, null, UNLABELED);
+    }
+
+    public Histogram histogram(String name, String help, String label, String value) {
+        return (Histogram) child(name, help, Type.HISTOGRAM, label, value, Histogram::new);
+    }
+
+    /**
+     * Registers a gauge read from the supplier on every scrape, replacing an earlier one of the same name.
+     */
+    public void gauge(String name, String help, DoubleSupplier value) {
+        family(name, help, Type.GAUGE, null).children().put(UNLABELED, value);
+    }
+
+    /**
+     * Registers a counter that is kept elsewhere and read from the supplier on every scrape.
+     */
+    public void counter(String name, String help, DoubleSupplier value) {
+        family(name, help, Type.COUNTER, null).children().put(UNLABELED, value);
+    }
+
+    private Object child(String name, String help, Type type, String label, String value,
+                         Supplier<Object> create) {
+        return family(name, help, type, label).children().computeIfAbsent(value, v -> create.get());
+    }
+
+    private Family family(String name, String help, Type type, String label) {
+        Family family = families.computeIfAbsent(name,
+                n -> new Family(n, help, type, label, new ConcurrentSkipListMap<>()));
+        if (family.type() != type)
+            throw new IllegalArgumentException("Metric " + name + " is already registered as " + family.type());
+        return family;
+    }
+
+    /**
+     * @return all metrics in the Prometheus text exposition format.
+     */
+    public String toPrometheus() {
+        StringBuilder builder = new StringBuilder();
+        for (Family family : families.values()) {
+            builder.append("# HELP ").append(family.name()).append(' ').append(family.help()).append('\n');
+            builder.append("# TYPE ").append(family.name()).append(' ')
+                    .append(family.type().name().toLowerCase(Locale.ROOT)).append('\n');
+
+            family.children().forEach((value, child) -> {
+                String labels = family.label() == null ? "" : family.label() + "=\"" + escape(value) + "\"";
+                if (child instanceof Histogram histogram) {
+                    long cumulative = 0;
+                    for (int i = 0; i <= BUCKETS.length; i++) {
+                        cumulative += histogram.buckets[i].sum();
+                        String le = i == BUCKETS.length
+                                ? "+Inf"
+                                : BigDecimal.valueOf(BUCKETS[i]).stripTrailingZeros().toPlainString();
+                        sample(builder, family.name() + "_bucket",
+                                (labels.isEmpty() ? "" : labels + ",") + "le=\"" + le + "\"", cumulative);
+                    }
+                    sample(builder, family.name() + "_sum", labels, histogram.total.sum() / 1e9);
+                    sample(builder, family.name() + "_count", labels, histogram.getCount());
+                } else {
+                    sample(builder, family.name(), labels, read(child));
+                }
+            });
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return all metrics in a compact form for the console, with histograms summarised in milliseconds and left
+     * out while empty.
+     */
+    public String toText() {
+        StringBuilder builder = new StringBuilder();
+        for (Family family : families.values()) {
+            family.children().forEach((value, child) -> {
+                if (child instanceof Histogram histogram && histogram.getCount() == 0) return;
+
+                builder.append(family.name());
+                if (family.label() != null)
+                    builder.append('{').append(family.label()).append('=').append(value).append('}');
+
+                if (child instanceof Histogram histogram) {
+                    builder.append(String.format(" count=%d avg=%.2fms p50<=%.1fms p99<=%.1fms max=%.2fms",
+                            histogram.getCount(), histogram.getAverage() * 1e3, histogram.quantile(0.5) * 1e3,
+                            histogram.quantile(0.99) * 1e3, histogram.getMax() * 1e3));
+                } else {
+                    builder.append(' ').append(format(read(child)));
+                }
+                builder.append('\n');
+            });
+        }
+        return builder.toString();
+    }
+
+    private static double read(Object child) {
+        if (child instanceof Counter counter) return counter.get();
+        return ((DoubleSupplier) child).getAsDouble();
+    }
+
+    private static void sample(StringBuilder builder, String name, String labels, double value) {
+        builder.append(name);
+        if (!labels.isEmpty()) builder.append('{').append(labels).append('}');
+        builder.append(' ').append(format(value)).append('\n');
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value)) return Long.toString((long) value);
+        return Double.toString(value);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    public static class Counter {
+        private final LongAdder count = new LongAdder();
+
+        public void increment() {
+            count.increment();
+        }
+
+        public void add(long amount) {
+            count.add(amount);
+        }
+
+        public long get() {
+            return count.sum();
+        }
+    }
+
+    public static class Histogram {
+        private final LongAdder[] buckets = new LongAdder[BUCKETS.length + 1];
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+        private Histogram() {
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+
+        public void record(long nanos) {
+            double seconds = nanos / 1e9;
+            int bucket = 0;
+            while (bucket < BUCKETS.length && seconds > BUCKETS[bucket]) bucket++;
+            buckets[bucket].increment();
+            total.add(nanos);
+            max.accumulate(nanos);
+        }
+
+        public long getCount() {
+            long count = 0;
+            for (LongAdder bucket : buckets) count += bucket.sum();
+            return count;
+        }
+
+        /**
+         * @return mean in seconds.
+         */
+        public double getAverage() {
+            long count = getCount();
+            return count == 0 ? 0 : total.sum() / (count * 1e9);
+        }
+
+        /**
+         * @return maximum in seconds.
+         */
+        public double getMax() {
+            return max.get() / 1e9;
+        }
+
+        /**
+         * @return upper bound of the bucket holding the given quantile, in seconds; the maximum if it is in the last.
+         */
+        public double quantile(double quantile) {
+            long count = getCount();
+            if (count == 0) return 0;
+
+            long rank = (long) Math.ceil(quantile * count);
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                cumulative += buckets[i].sum();
+                if (cumulative >= rank) return Math.min(BUCKETS[i], getMax());
+            }
+            return getMax();
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ *
+ * Copyright (c) 2022 Meindert Kempe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.mkempe.mkJDABot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.*;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Versioned schema changes. Each migration runs once, in order, in its own transaction, and is recorded in
+ * schema_version. Migrations that have been released must not be changed; add a new one instead.
+ */
+class Migrations {
+    private static final Logger logger = LoggerFactory.getLogger(Migrations.class);
+
+    @FunctionalInterface
+    private interface Step {
+        void apply(Connection connection) throws SQLException;
+    }
+
+    private record Migration(int version, String description, List<String> statements, Step step) {
+        Migration(int version, String description, List<String> statements) {
+            this(version, description, statements, null);
+        }
+
+        Migration(int version, String description, Step step) {
+            this(version, description, List.of(), step);
+        }
+    }
+
+    private record Query(String description, String sql, String index) {
+    }
+
+    // The first three use IF NOT EXISTS to adopt databases created before migrations were versioned.
+    private static final List<Migration> MIGRATIONS = List.of(
+            new Migration(1, "Create settings", List.of("""
+                    CREATE TABLE IF NOT EXISTS settings
+                    (
+                        name  TEXT PRIMARY KEY NOT NULL,
+                        value TEXT NOT NULL
+                    );
+                    """
+            )),
+            new Migration(2, "Create scheduled_tasks", List.of("""
+                            CREATE TABLE IF NOT EXISTS scheduled_tasks
+                            (
+                                task_name            TEXT     NOT NULL,
+                                task_instance        TEXT     NOT NULL,
+                                task_data            BLOB,
+                                execution_time       DATETIME NOT NULL,
+                                picked               BOOLEAN  NOT NULL,
+                                picked_by            TEXT,
+                                last_success         DATETIME,
+                                last_failure         DATETIME,
+                                consecutive_failures INTEGER,
+                                last_heartbeat       DATETIME,
+                                version              INTEGER  NOT NULL,
+                                PRIMARY KEY (task_name, task_instance)
+                            );
+                            """,
+                    "CREATE INDEX IF NOT EXISTS execution_time_idx ON scheduled_tasks (execution_time);",
+                    "CREATE INDEX IF NOT EXISTS last_heartbeat_idx ON scheduled_tasks (last_heartbeat);"
+            )),
+            new Migration(3, "Create notifications", List.of("""
+                    CREATE TABLE IF NOT EXISTS notifications
+                    (
+                        guild        TEXT NOT NULL,
+                        channel      TEXT NOT NULL,
+                        channel_type INTEGER NOT NULL,
+                        name         TEXT NOT NULL,
+                        role         TEXT,
+                        message      TEXT NOT NULL,
+                        schedule     TEXT NOT NULL,
+                        task_type    TEXT NOT NULL,
+                        count_max    INTEGER NOT NULL,
+                        count        INTEGER NOT NULL,
+                        "user"       TEXT NOT NULL,
+                        PRIMARY KEY (guild, channel, name)
+                    );
+                    """
+            )),
+            // Lookups by name without a channel can only use the primary key up to guild.
+            new Migration(4, "Index notifications by guild and name", List.of(
+                    "CREATE INDEX notifications_guild_name_idx ON notifications (guild, name);"
+            )),
+            // db-scheduler polls with picked = ? AND execution_time <= ? ORDER BY execution_time.
+            new Migration(5, "Index due executions", List.of(
+                    "CREATE INDEX picked_execution_time_idx ON scheduled_tasks (picked, execution_time);"
+            )),
+            new Migration(6, "Embed notification payloads in task_data", Migrations::embedPayloads)
+    );
+
+    // Query shapes the indexes exist for; their plans are checked after migrating.
+    private static final List<Query> QUERIES = List.of(
+            new Query("notification by key",
+                    "SELECT * FROM notifications WHERE guild = ? AND channel = ? AND name = ?",
+                    "sqlite_autoindex_notifications_1"),
+            new Query("notifications by name",
+                    "SELECT * FROM notifications WHERE guild = ? AND name = ?",
+                    "notifications_guild_name_idx"),
+            new Query("notifications page",
+                    "SELECT * FROM notifications WHERE guild = ? AND (channel, name) > (?, ?) ORDER BY channel, name LIMIT ?",
+                    "sqlite_autoindex_notifications_1"),
+            new Query("notifications page in channel",
+                    "SELECT * FROM notifications WHERE guild = ? AND channel = ? AND name > ? ORDER BY name LIMIT ?",
+                    "sqlite_autoindex_notifications_1"),
+            new Query("due executions",
+                    "SELECT * FROM scheduled_tasks WHERE picked = ? AND execution_time <= ? ORDER BY execution_time ASC",
+                    "picked_execution_time_idx"),
+            new Query("next execution",
+                    "SELECT MIN(execution_time) FROM scheduled_tasks WHERE picked = ? AND execution_time > ?",
+                    "picked_execution_time_idx")
+    );
+
+    private Migrations() {
+
+    }
+
+    /**
+     * Applies all migrations newer than the version recorded in the database.
+     */
+    static void migrate(Connection connection, Dialect dialect) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("""
+                    CREATE TABLE IF NOT EXISTS schema_version
+                    (
+                        version     INTEGER PRIMARY KEY NOT NULL,
+                        description TEXT NOT NULL,
+                        applied_at  TEXT NOT NULL
+                    );
+                    """
+            );
+        }
+
+        int current = currentVersion(connection);
+        int latest = latestVersion();
+        if (current > latest)
+            throw new IllegalStateException("Database schema version " + current + " is newer than supported " + latest);
+
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version() <= current) continue;
+            try {
+                apply(connection, migration, dialect);
+            } catch (SQLException e) {
+                // Nodes sharing a database may start together, the one that loses the race finds it applied.
+                if (currentVersion(connection) < migration.version()) throw e;
+                logger.info("Migration {} was applied by another node", migration.version());
+                continue;
+            }
+            logger.info("Applied migration {}: {}", migration.version(), migration.description());
+        }
+    }
+
+    /**
+     * SQLite only. Logs a warning for every known query shape that SQLite would not answer from its intended index, or only with
+     * a full scan or a temporary sort.
+     */
+    static void checkQueryPlans(Connection connection) throws SQLException {
+        for (Query query : QUERIES) {
+            String details = queryPlan(connection, query.sql());
+            if (usesIndex(details, query.index())) logger.debug("Query plan for {}: {}", query.description(), details);
+            else logger.warn("Query plan for {} does not use {}: {}", query.description(), query.index(), details);
+        }
+    }
+
+    /**
+     * SQLite only.
+     *
+     * @return the details of SQLite's query plan for {@code sql}, separated by "; ".
+     */
+    static String queryPlan(Connection connection, String sql) throws SQLException {
+        StringBuilder plan = new StringBuilder();
+        try (PreparedStatement statement = connection.prepareStatement("EXPLAIN QUERY PLAN " + sql);
+             ResultSet results = statement.executeQuery()) {
+            while (results.next()) {
+                plan.append(results.getString("detail")).append("; ");
+            }
+        }
+        return plan.toString();
+    }
+
+    /**
+     * @return whether the plan searches {@code index}, without a full scan or a temporary sort.
+     */
+    static boolean usesIndex(String plan, String index) {
+        return plan.contains("INDEX " + index + " ") && !plan.contains("SCAN ") && !plan.contains("TEMP B-TREE");
+    }
+
+    /**
+     * Rewrites the data of existing notify and reminder instances to carry their notification, in the format of
+     * {@link TaskDataSerializer}.
+     */
+    private static void embedPayloads(Connection connection) throws SQLException {
+        TaskDataSerializer serializer = new TaskDataSerializer();
+        String notify = NotificationMessage.notifyTask.getName();
+        int embedded = 0;
+
+        try (PreparedStatement select = connection.prepareStatement("""
+                SELECT t.task_name, t.task_instance, n.* FROM scheduled_tasks t
+                JOIN notifications n ON t.task_instance = n.guild || ':' || n.channel || ':' || n.name
+                WHERE t.task_name IN (?, ?);
+                """);
+             PreparedStatement update = connection.prepareStatement(
+                     "UPDATE scheduled_tasks SET task_data = ? WHERE task_name = ? AND task_instance = ?;")) {
+            select.setString(1, notify);
+            select.setString(2, NotificationMessage.reminderTask.getName());
+
+            try (ResultSet results = select.executeQuery()) {
+                while (results.next()) {
+                    String task = results.getString("task_name");
+                    NotificationMessage message = Database.getNotificationMessageFromResults(results);
+                    Object data = task.equals(notify) ? new NotificationSchedule(message.schedule(), message) : message;
+
+                    update.setBytes(1, serializer.serialize(data));
+                    update.setString(2, task);
+                    update.setString(3, results.getString("task_instance"));
+                    update.addBatch();
+                    embedded++;
+                }
+            }
+            update.executeBatch();
+        }
+        logger.info("Embedded {} notification payloads", embedded);
+    }
+
+    static int latestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version();
+    }
+
+    static int currentVersion(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet results = statement.executeQuery("SELECT MAX(version) FROM schema_version;")) {
+            return results.next() ? results.getInt(1) : 0;
+        }
+    }
+
+    private static void apply(Connection connection, Migration migration, Dialect dialect) throws SQLException {
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement();
+             PreparedStatement record = connection.prepareStatement(
+                     "INSERT INTO schema_version (version, description, applied_at) VALUES (?, ?, ?);")) {
+            for (String sql : migration.statements()) {
+                statement.execute(dialect.ddl(sql));
+            }
+            if (migration.step() != null)
+                migration.step().apply(connection);
+
+            record.setInt(1, migration.version());
+            record.setString(2, migration.description());
+            record.setString(3, Instant.now().toString());
+            record.executeUpdate();
+
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+}
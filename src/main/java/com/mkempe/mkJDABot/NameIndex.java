@@ -0,0 +1,87 @@
+/*
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ *
+ * Copyright (c) 2022 Meindert Kempe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.mkempe.mkJDABot;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * In-memory index of notification names per guild for autocomplete, so suggestions never need a database query.
+ * Entries are kept sorted as {@code lowercase name \0 name \0 channel}, which makes a case-insensitive prefix
+ * lookup a range scan of the guild's set.
+ */
+public class NameIndex {
+    private static final char SEPARATOR = '\0';
+    private final Map<String, ConcurrentSkipListSet<String>> guilds = new ConcurrentHashMap<>();
+
+    public void add(String guild, String channel, String name) {
+        guilds.computeIfAbsent(guild, g -> new ConcurrentSkipListSet<>()).add(entry(channel, name));
+    }
+
+    public void remove(String guild, String channel, String name) {
+        Set<String> entries = guilds.get(guild);
+        if (entries != null)
+            entries.remove(entry(channel, name));
+    }
+
+    public boolean contains(String guild, String channel, String name) {
+        Set<String> entries = guilds.get(guild);
+        return entries != null && entries.contains(entry(channel, name));
+    }
+
+    public void clear() {
+        guilds.clear();
+    }
+
+    /**
+     * @param channel optional channel the names have to belong to.
+     * @param prefix  case-insensitive start of the name.
+     * @param limit   maximum number of names to return.
+     * @return distinct names in alphabetical order.
+     */
+    public List<String> complete(String guild, String channel, String prefix, int limit) {
+        ConcurrentSkipListSet<String> entries = guilds.get(guild);
+        if (entries == null) return List.of();
+
+        String lower = prefix.toLowerCase(Locale.ROOT);
+        Set<String> names = new LinkedHashSet<>();
+        for (String entry : entries.tailSet(lower)) {
+            if (!entry.startsWith(lower) || names.size() >= limit) break;
+
+            int nameEnd = entry.lastIndexOf(SEPARATOR);
+            if (channel != null && !entry.substring(nameEnd + 1).equals(channel))
+                continue;
+            names.add(entry.substring(entry.indexOf(SEPARATOR) + 1, nameEnd));
+        }
+        return new ArrayList<>(names);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Set<String> entries : guilds.values()) size += entries.size();
+        return size;
+    }
+
+    private static String entry(String channel, String name) {
+        return name.toLowerCase(Locale.ROOT) + SEPARATOR + name + SEPARATOR + channel;
+    }
+}
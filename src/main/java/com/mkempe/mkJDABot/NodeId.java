@@ -0,0 +1,101 @@
+/*
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ *
+ * Copyright (c) 2022 Meindert Kempe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.mkempe.mkJDABot;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+/**
+ * Name of this process among the nodes sharing a database, which db-scheduler records in picked_by.
+ * Generated once and kept in a file in the working directory, so it is stable across restarts.
+ * Processes started from the same directory need their own name: set the system property mkjdabot.node.index to
+ * a different value for each, or override the name with mkjdabot.node. Processes from one image each have their own
+ * copy of the file, so they need one of the two as well.
+ * A second process taking the same name from the same directory is refused.
+ */
+public class NodeId {
+    private static final String FILE = "mkJDABot.node";
+    private static String id;
+    // Held for the life of the process.
+    private static FileLock lock;
+
+    private NodeId() {
+
+    }
+
+    public static synchronized String get() {
+        if (id != null) return id;
+
+        String configured = System.getProperty("mkjdabot.node");
+        if (configured != null && !configured.isBlank()) return id = configured.trim();
+
+        String index = System.getProperty("mkjdabot.node.index", "").trim();
+        String node = index.isEmpty() ? installation() : installation() + "-" + index;
+        lock(Path.of(FILE + (index.isEmpty() ? "" : "." + index) + ".lock"), node);
+        return id = node;
+    }
+
+    private static void lock(Path path, String node) {
+        try {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            lock = channel.tryLock();
+            if (lock == null) {
+                channel.close();
+                throw new IllegalStateException("Node " + node + " is already running from this directory, "
+                        + "set mkjdabot.node.index to run another");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String installation() {
+        Path path = Path.of(FILE);
+        try {
+            if (Files.exists(path)) {
+                String installation = Files.readString(path).trim();
+                if (!installation.isEmpty()) return installation;
+            }
+
+            String installation = hostName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+            Files.writeString(path, installation + "\n");
+            return installation;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "mkJDABot";
+        }
+    }
+}
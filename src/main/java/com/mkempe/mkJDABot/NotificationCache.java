@@ -0,0 +1,128 @@
+/*
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ *
+ * Copyright (c) 2022 Meindert Kempe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package com.mkempe.mkJDABot;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of notification rows keyed by guild, channel and name.
+ * Database keeps it up to date on every write, so reads only go to SQLite on a miss.
+ */
+public class NotificationCache {
+    private final int capacity;
+    private final LinkedHashMap<Key, NotificationMessage> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    // Bumped on every invalidation, so a load that raced with a delete does not put a stale row back.
+    private long generation;
+
+    public NotificationCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, NotificationMessage> eldest) {
+                if (size() <= NotificationCache.this.capacity) return false;
+                evictions.increment();
+                return true;
+            }
+        };
+    }
+
+    public synchronized NotificationMessage get(String guild, String channel, String name) {
+        NotificationMessage message = entries.get(new Key(guild, channel, name));
+        if (message == null) misses.increment();
+        else hits.increment();
+        return message;
+    }
+
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Caches a row loaded from the database, unless an invalidation happened since {@code loadGeneration}.
+     */
+    public synchronized void putLoaded(NotificationMessage message, long loadGeneration) {
+        if (capacity <= 0 || loadGeneration != generation) return;
+        entries.put(Key.of(message), message);
+    }
+
+    public synchronized void put(NotificationMessage message) {
+        if (capacity <= 0) return;
+        entries.put(Key.of(message), message);
+    }
+
+    public synchronized void updateCount(String guild, String channel, String name, int count) {
+        generation++;
+        Key key = new Key(guild, channel, name);
+        NotificationMessage message = entries.get(key);
+        if (message == null) return;
+        entries.put(key, message.withCount(count));
+    }
+
+    public synchronized void incrementCount(String guild, String channel, String name) {
+        generation++;
+        Key key = new Key(guild, channel, name);
+        NotificationMessage message = entries.get(key);
+        if (message == null) return;
+        entries.put(key, message.withCount(message.count() + 1));
+    }
+
+    public synchronized void invalidate(String guild, String channel, String name) {
+        generation++;
+        entries.remove(new Key(guild, channel, name));
+    }
+
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public record Key(String guild, String channel, String name) {
+        public static Key of(NotificationMessage message) {
+            return new Key(message.guild(), message.channel(), message.name());
+        }
+    }
+}
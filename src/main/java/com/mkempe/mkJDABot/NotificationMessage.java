@@ -20,18 +20,25 @@
 
 package com.mkempe.mkJDABot;
 
+import com.github.kagkarlsson.scheduler.task.ExecutionComplete;
 import com.github.kagkarlsson.scheduler.task.ExecutionContext;
 import com.github.kagkarlsson.scheduler.task.TaskInstance;
 import com.github.kagkarlsson.scheduler.task.helper.OneTimeTask;
 import com.github.kagkarlsson.scheduler.task.helper.RecurringTaskWithPersistentSchedule;
+import com.github.kagkarlsson.scheduler.task.helper.ScheduleAndData;
 import com.github.kagkarlsson.scheduler.task.helper.Tasks;
-import com.github.kagkarlsson.scheduler.task.schedule.PersistentCronSchedule;
 import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.Role;
 import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Serializable;
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+
 public record NotificationMessage(
         String guild,
         String channel,
@@ -44,17 +51,80 @@ public record NotificationMessage(
         int countMax,
         int count,
         String user
-) {
+) implements Serializable {
     private static final Logger logger = LoggerFactory.getLogger(NotificationMessage.class);
     public static final int COUNTNONE = -1;
+    // Keeps page button ids, which carry the name of the last row, under Button.ID_MAX_LENGTH.
+    public static final int NAME_MAX = 40;
 
-    public static final RecurringTaskWithPersistentSchedule<PersistentCronSchedule> notifyTask = Tasks
-            .recurringWithPersistentSchedule("notify", PersistentCronSchedule.class)
+    // Instances scheduled before NotificationSchedule existed still carry a PersistentCronSchedule.
+    public static final RecurringTaskWithPersistentSchedule<ScheduleAndData> notifyTask = Tasks
+            .recurringWithPersistentSchedule("notify", ScheduleAndData.class)
             .execute((inst, ctx) -> messageFromInstance(inst, ctx, false));
 
-    public static final OneTimeTask<Void> reminderTask = Tasks.oneTime("reminder")
+    public static final OneTimeTask<NotificationMessage> reminderTask = Tasks
+            .oneTime("reminder", NotificationMessage.class)
             .execute((inst, ctx) -> messageFromInstance(inst, ctx, true));
 
+    public NotificationMessage withCount(int count) {
+        return new NotificationMessage(guild, channel, channelType, name, role, message, schedule, taskType, countMax, count, user);
+    }
+
+    /**
+     * @return id of the scheduler instance of this notification.
+     */
+    public String instanceId() {
+        return guild + ":" + channel + ":" + name;
+    }
+
+    /**
+     * @return when this notification is due next after {@code now}: its time for a reminder, otherwise the next
+     * time its cron expression matches.
+     * @throws IllegalArgumentException if the cron expression is invalid.
+     * @throws java.time.format.DateTimeParseException if the reminder time is invalid.
+     */
+    public Instant nextExecution(Instant now) {
+        if (taskType.equals(reminderTask.getName()))
+            return ZonedDateTime.parse(schedule).toInstant();
+
+        return CronCache.getInstance().schedule(schedule).getNextExecutionTime(ExecutionComplete.simulatedSuccess(now));
+    }
+
+    /**
+     * Checks what the schedule and reminder commands accept.
+     *
+     * @throws IllegalArgumentException describing the first problem found.
+     */
+    public void validate() {
+        if (name == null || name.isBlank())
+            throw new IllegalArgumentException("empty name");
+        if (name.length() > NAME_MAX)
+            throw new IllegalArgumentException("name longer than " + NAME_MAX + " characters");
+        if (message == null || message.isBlank())
+            throw new IllegalArgumentException("empty message");
+
+        if (taskType.equals(reminderTask.getName())) {
+            try {
+                ZonedDateTime.parse(schedule);
+            } catch (DateTimeException e) {
+                throw new IllegalArgumentException("invalid time");
+            }
+        } else {
+            try {
+                CronCache.getInstance().parse(schedule);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("invalid cron syntax");
+            }
+        }
+    }
+
+    private static NotificationMessage payloadOf(Object data) {
+        if (data instanceof NotificationMessage message) return message;
+        if (data instanceof ScheduleAndData schedule && schedule.getData() instanceof NotificationMessage message)
+            return message;
+        return null;
+    }
+
     public static <T> void messageFromInstance(TaskInstance<T> inst, ExecutionContext ctx, boolean deleteFromDb) {
         // Task instance id is in format "guildId:channelId:name"
         String[] instId = inst.getId().split(":", 3);
@@ -62,8 +132,36 @@ public record NotificationMessage(
         String channelId = instId[1];
         String name = instId[2];
 
-        // Retrieve message details from database.
-        NotificationMessage message = Database.getInstance().getSchedule(guildId, channelId, name);
+        long lag = Math.max(0, Duration.between(ctx.getExecution().executionTime, Instant.now()).toNanos());
+        Metrics.getInstance().histogram("mkjdabot_scheduler_lag_seconds",
+                "Time from an execution being due until it started", "task", inst.getTaskName())
+                .record(lag);
+        CatchUp.Policy catchUp = Bot.getInstance().getCatchUp().policyFor(inst.getTaskName(), lag / 1_000_000);
+
+        if (catchUp == CatchUp.Policy.SKIP) {
+            Bot.getInstance().getCatchUp().skipped(inst.getTaskName());
+            if (deleteFromDb)
+                Database.getInstance().deleteSchedule(guildId, channelId, name);
+            return;
+        }
+
+        NotificationMessage message = payloadOf(inst.getData());
+        if (message == null || message.countMax() > 0) {
+            // Counts live in notifications, and instances from before payloads were stored have nothing else;
+            // claim this fire there, counting it or removing the notification after its last fire.
+            long start = System.nanoTime();
+            message = Database.getInstance().claimFire(guildId, channelId, name, deleteFromDb);
+            logger.debug("Claimed fire of {} in {} us", inst.getId(), (System.nanoTime() - start) / 1000);
+        } else if (Database.getInstance().getDialect().isShared()
+                ? !Database.getInstance().exists(guildId, channelId, name)
+                : !Database.getInstance().getNames().contains(guildId, channelId, name)) {
+            // Unscheduled, but cancelling the instance failed. The name index only knows this node's changes,
+            // with a shared database the row itself is checked.
+            message = null;
+        } else if (deleteFromDb) {
+            // notifications is only used for listing now, keep removing the row off the send path.
+            Database.getInstance().deleteScheduleAsync(guildId, channelId, name);
+        }
 
         if (message == null) {
 //            ctx.getSchedulerClient().cancel(inst);
@@ -72,27 +170,13 @@ public record NotificationMessage(
             return;
         }
 
-        boolean cancel = false;
-        if (message.countMax() > 0 && message.count() >= message.countMax() - 1) {
-//            ctx.getSchedulerClient().cancel(inst);
-            cancel = true;
-        }
-
-
-        if (message.countMax() > 0 && !cancel)
-            Database.getInstance().updateCount(guildId, channelId, name, message.count() + 1);
-
-
-        if (deleteFromDb || cancel)
-            Database.getInstance().deleteSchedule(guildId, channelId, name);
-
         Guild guild;
         MessageChannel channel;
         String text;
         Role role;
 
         //TODO check for existance of channel (might get exception).
-        if ((guild = Bot.getInstance().getJDA().getGuildById(message.guild())) == null)
+        if ((guild = Bot.getInstance().getGuildById(message.guild())) == null)
             return;
         if ((channel = guild.getChannelById(MessageChannel.class, message.channel())) == null)
             return;
@@ -104,6 +188,16 @@ public record NotificationMessage(
         // Allow new lines in message.
         text = text.replace("\\n", "\n");
 
-        channel.sendMessage(role.getAsMention() + " " + text).queue();
+        String content = role.getAsMention() + " " + text;
+        if (catchUp == null) {
+            Bot.getInstance().getCoalescer().send(channel, content);
+            return;
+        }
+
+        Bot.getInstance().getCatchUp().fired(inst.getTaskName());
+        if (catchUp == CatchUp.Policy.RATE)
+            Bot.getInstance().getCatchUp().release(() -> Bot.getInstance().getCoalescer().send(channel, content));
+        else
+            Bot.getInstance().getCoalescer().send(channel, content);
     }
 }
@@ -0,0 +1,45 @@
+/*
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ *
+ * Copyright (c) 2022 Meindert Kempe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package com.mkempe.mkJDABot;
+
+import com.github.kagkarlsson.scheduler.task.helper.ScheduleAndData;
+import com.github.kagkarlsson.scheduler.task.schedule.Schedule;
+
+/**
+ * Persisted cron schedule of a notify task. Unlike PersistentCronSchedule it does not parse the expression again
+ * every time the task is rescheduled, but takes the parsed schedule from {@link CronCache}.
+ *
+ * @param payload the notification to send, so a fire does not have to look it up; null for instances scheduled
+ *                before payloads were stored.
+ */
+public record NotificationSchedule(String cron, NotificationMessage payload) implements ScheduleAndData {
+
+    @Override
+    public Schedule getSchedule() {
+        return CronCache.getInstance().schedule(cron);
+    }
+
+    @Override
+    public Object getData() {
+        return payload;
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ *
+ * Copyright (c) 2022 Meindert Kempe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.mkempe.mkJDABot;
+
+import com.github.kagkarlsson.scheduler.task.TaskInstanceId;
+
+import java.util.List;
+
+/**
+ * Entries of notifications and scheduled_tasks without a counterpart in the other table.
+ *
+ * @param notifications notifications that have no execution.
+ * @param instances     executions of notify and reminder tasks that have no notification.
+ */
+public record Orphans(List<NotificationMessage> notifications, List<TaskInstanceId> instances) {
+    public int size() {
+        return notifications.size() + instances.size();
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ *
+ * Copyright (c) 2022 Meindert Kempe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.mkempe.mkJDABot;
+
+import com.github.kagkarlsson.scheduler.task.ExecutionComplete;
+import com.github.kagkarlsson.scheduler.task.TaskInstanceId;
+import com.github.kagkarlsson.scheduler.task.helper.RecurringTask;
+import com.github.kagkarlsson.scheduler.task.helper.Tasks;
+import com.github.kagkarlsson.scheduler.task.schedule.FixedDelay;
+import com.github.kagkarlsson.scheduler.task.schedule.Schedule;
+import com.github.kagkarlsson.scheduler.task.schedule.Schedules;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Repairs notifications and scheduler instances that drifted apart: a notification whose instance is gone is
+ * scheduled again, or deleted if it is a reminder that is already due, and an instance whose notification is gone is
+ * cancelled. Both tables are read once, merged in key order, and repaired in batches.
+ * <p>
+ * Commands write the notification and its instance one after the other, so a pair may be briefly incomplete.
+ * Only orphans that are still orphans some time later are repaired: the recurring task repairs those its previous
+ * run found too, {@link #run(Duration)} looks again after waiting on the calling thread.
+ */
+public class Reconciler {
+    private static final Logger logger = LoggerFactory.getLogger(Reconciler.class);
+    private static final int BATCH_SIZE = 500;
+    private static final int LIMIT = 10_000;
+    static final Duration GRACE = Duration.ofSeconds(10);
+    // Orphans found by the previous run of the task on this node.
+    private static Orphans previous = new Orphans(List.of(), List.of());
+
+    /**
+     * @param created   notifications scheduled again.
+     * @param expired   reminders deleted because their time had passed.
+     * @param invalid   notifications left alone because their schedule could not be parsed.
+     * @param cancelled instances cancelled.
+     */
+    public record Report(long created, long expired, long invalid, long cancelled, long nanos) {
+        public long repaired() {
+            return created + expired + cancelled;
+        }
+    }
+
+    private Reconciler() {
+
+    }
+
+    /**
+     * First runs one interval after it is scheduled, so a restart does not scan both tables while the fires missed
+     * during downtime compete for the scheduler's threads.
+     */
+    public static RecurringTask<Void> task(Duration interval) {
+        FixedDelay delay = Schedules.fixedDelay(interval);
+        Schedule schedule = new Schedule() {
+            @Override
+            public Instant getNextExecutionTime(ExecutionComplete executionComplete) {
+                return delay.getNextExecutionTime(executionComplete);
+            }
+
+            @Override
+            public Instant getInitialExecutionTime(Instant now) {
+                return now.plus(interval);
+            }
+
+            @Override
+            public boolean isDeterministic() {
+                return false;
+            }
+        };
+        return Tasks.recurring("reconcile", schedule).execute((inst, ctx) -> runTask());
+    }
+
+    private static synchronized Report runTask() {
+        long start = System.nanoTime();
+        Orphans orphans = Database.getInstance().findOrphans(LIMIT);
+        Orphans confirmed = confirmed(previous, orphans);
+        previous = orphans;
+        return repair(confirmed, start);
+    }
+
+    /**
+     * Finds orphans, waits {@code grace} on the calling thread, and repairs those that are still orphans.
+     */
+    public static Report run(Duration grace) {
+        long start = System.nanoTime();
+        Database database = Database.getInstance();
+
+        Orphans orphans = database.findOrphans(LIMIT);
+        if (orphans.size() > 0) {
+            try {
+                Thread.sleep(grace.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new Report(0, 0, 0, 0, System.nanoTime() - start);
+            }
+            orphans = confirmed(orphans, database.findOrphans(LIMIT));
+        }
+        return repair(orphans, start);
+    }
+
+    private static Report repair(Orphans orphans, long start) {
+        Database database = Database.getInstance();
+        Instant now = Instant.now();
+        List<NotificationMessage> schedule = new ArrayList<>();
+        List<Instant> times = new ArrayList<>();
+        List<NotificationMessage> expire = new ArrayList<>();
+        long created = 0, expired = 0, invalid = 0, cancelled = 0;
+        for (NotificationMessage message : orphans.notifications()) {
+            Instant next;
+            try {
+                next = message.nextExecution(now);
+            } catch (IllegalArgumentException | DateTimeException e) {
+                logger.warn("Notification {} has an invalid schedule {}", message.instanceId(), message.schedule());
+                invalid++;
+                continue;
+            }
+            if (next.isBefore(now)) {
+                expire.add(message);
+            } else {
+                schedule.add(message);
+                times.add(next);
+            }
+            if (schedule.size() == BATCH_SIZE) {
+                created += createInstances(schedule, times);
+            }
+            if (expire.size() == BATCH_SIZE) {
+                expired += database.deleteOrphanNotifications(expire);
+                expire.clear();
+            }
+        }
+        created += createInstances(schedule, times);
+        if (!expire.isEmpty()) expired += database.deleteOrphanNotifications(expire);
+
+        List<TaskInstanceId> instances = orphans.instances();
+        for (int i = 0; i < instances.size(); i += BATCH_SIZE) {
+            cancelled += database.deleteOrphanInstances(instances.subList(i, Math.min(i + BATCH_SIZE, instances.size())));
+        }
+
+        Report report = new Report(created, expired, invalid, cancelled, System.nanoTime() - start);
+        count("created", created);
+        count("expired", expired);
+        count("cancelled", cancelled);
+        if (report.repaired() > 0 || invalid > 0)
+            logger.info("Reconciled: {} notifications scheduled again, {} expired reminders deleted, "
+                            + "{} instances cancelled, {} invalid schedules, in {} ms",
+                    created, expired, cancelled, invalid, report.nanos() / 1_000_000);
+        return report;
+    }
+
+    private static long createInstances(List<NotificationMessage> messages, List<Instant> times) {
+        if (messages.isEmpty()) return 0;
+
+        int created = Database.getInstance().createInstances(messages, times);
+        Bot.getInstance().scheduled(times.stream().min(Instant::compareTo).orElseThrow());
+        messages.clear();
+        times.clear();
+        return created;
+    }
+
+    /**
+     * @return orphans of {@code second} that were already orphans in {@code first}.
+     */
+    private static Orphans confirmed(Orphans first, Orphans second) {
+        Set<String> notifications = new HashSet<>();
+        for (NotificationMessage message : first.notifications())
+            notifications.add(message.taskType() + ":" + message.instanceId());
+        Set<String> instances = new HashSet<>();
+        for (TaskInstanceId instance : first.instances())
+            instances.add(instance.getTaskName() + ":" + instance.getId());
+
+        Orphans confirmed = new Orphans(new ArrayList<>(), new ArrayList<>());
+        for (NotificationMessage message : second.notifications()) {
+            if (notifications.contains(message.taskType() + ":" + message.instanceId()))
+                confirmed.notifications().add(message);
+        }
+        for (TaskInstanceId instance : second.instances()) {
+            if (instances.contains(instance.getTaskName() + ":" + instance.getId()))
+                confirmed.instances().add(instance);
+        }
+        return confirmed;
+    }
+
+    private static void count(String action, long amount) {
+        Metrics.getInstance().counter("mkjdabot_reconcile_repairs_total",
+                "Notifications and scheduler instances repaired by reconciliation", "action", action).add(amount);
+    }
+}
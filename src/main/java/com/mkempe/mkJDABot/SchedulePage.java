@@ -0,0 +1,44 @@
+/*
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ *
+ * Copyright (c) 2022 Meindert Kempe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.mkempe.mkJDABot;
+
+import java.util.List;
+
+/**
+ * One page of notifications in (channel, name) order, as returned by {@link Database#getSchedulesPage}.
+ *
+ * @param hasPrevious whether rows exist before the first one of this page.
+ * @param hasNext     whether rows exist after the last one of this page.
+ */
+public record SchedulePage(List<NotificationMessage> messages, boolean hasPrevious, boolean hasNext) {
+
+    public boolean isEmpty() {
+        return messages.isEmpty();
+    }
+
+    public NotificationMessage first() {
+        return messages.get(0);
+    }
+
+    public NotificationMessage last() {
+        return messages.get(messages.size() - 1);
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ *
+ * Copyright (c) 2022 Meindert Kempe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.mkempe.mkJDABot;
+
+import net.dv8tion.jda.api.utils.MiscUtil;
+import net.dv8tion.jda.api.utils.data.DataObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Bulk export and import of notifications as NDJSON: one JSON object per line, keyed by the columns of
+ * notifications. Both stream, so memory use does not grow with the size of the file.
+ */
+public class ScheduleTransfer {
+    private static final Logger logger = LoggerFactory.getLogger(ScheduleTransfer.class);
+    private static final int BATCH_SIZE = 500;
+
+    /**
+     * @param records  notifications written, or inserted.
+     * @param skipped  notifications that already existed.
+     * @param rejected lines that were not a valid notification.
+     * @param expired  reminders whose time had passed, which are not imported.
+     */
+    public record Result(long records, long skipped, long rejected, long expired, long nanos) {
+        public double perSecond() {
+            return nanos == 0 ? 0 : records * 1e9 / nanos;
+        }
+    }
+
+    private ScheduleTransfer() {
+
+    }
+
+    public static Result exportTo(Path file) {
+        long start = System.nanoTime();
+        long[] records = {0};
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            Database.getInstance().forEachSchedule(message -> {
+                try {
+                    writer.write(toJson(message).toString());
+                    writer.newLine();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                records[0]++;
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new Result(records[0], 0, 0, 0, System.nanoTime() - start);
+    }
+
+    /**
+     * Inserts the notifications in the file and schedules them, in transactions of {@value BATCH_SIZE}.
+     * Invalid lines are logged and skipped, as are notifications that already exist and reminders that are due
+     * already, which would otherwise all fire at once.
+     */
+    public static Result importFrom(Path file) {
+        long start = System.nanoTime();
+        long records = 0;
+        long skipped = 0;
+        long rejected = 0;
+        long expired = 0;
+        List<NotificationMessage> batch = new ArrayList<>(BATCH_SIZE);
+        List<Instant> executionTimes = new ArrayList<>(BATCH_SIZE);
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            long number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                if (line.isBlank()) continue;
+
+                NotificationMessage message;
+                Instant next;
+                Instant now = Instant.now();
+                try {
+                    message = fromJson(DataObject.fromJson(line));
+                    next = message.nextExecution(now);
+                } catch (RuntimeException e) {
+                    logger.warn("Line {} rejected: {}", number, e.getMessage());
+                    rejected++;
+                    continue;
+                }
+                if (next.isBefore(now)) {
+                    logger.info("Line {} skipped: reminder {} was due at {}", number, message.instanceId(), next);
+                    expired++;
+                    continue;
+                }
+                executionTimes.add(next);
+                batch.add(message);
+
+                if (batch.size() == BATCH_SIZE) {
+                    int inserted = insert(batch, executionTimes);
+                    records += inserted;
+                    skipped += batch.size() - inserted;
+                    batch.clear();
+                    executionTimes.clear();
+                }
+            }
+            int inserted = insert(batch, executionTimes);
+            records += inserted;
+            skipped += batch.size() - inserted;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new Result(records, skipped, rejected, expired, System.nanoTime() - start);
+    }
+
+    private static int insert(List<NotificationMessage> batch, List<Instant> executionTimes) {
+        if (batch.isEmpty()) return 0;
+
+        int inserted = Database.getInstance().insertSchedules(batch, executionTimes).size();
+        // The scheduler did not create these executions, so its wake-up timer has not seen them.
+        executionTimes.stream().min(Comparator.naturalOrder()).ifPresent(Bot.getInstance()::scheduled);
+        return inserted;
+    }
+
+    private static DataObject toJson(NotificationMessage message) {
+        return DataObject.empty()
+                .put("guild", message.guild())
+                .put("channel", message.channel())
+                .put("channel_type", message.channelType())
+                .put("name", message.name())
+                .put("role", message.role())
+                .put("message", message.message())
+                .put("schedule", message.schedule())
+                .put("task_type", message.taskType())
+                .put("count_max", message.countMax())
+                .put("count", message.count())
+                .put("user", message.user());
+    }
+
+    /**
+     * @throws RuntimeException if a field is missing or invalid.
+     */
+    private static NotificationMessage fromJson(DataObject json) {
+        String taskType = json.getString("task_type");
+        if (!taskType.equals(NotificationMessage.notifyTask.getName())
+                && !taskType.equals(NotificationMessage.reminderTask.getName()))
+            throw new IllegalArgumentException("unknown task_type " + taskType);
+
+        NotificationMessage message = new NotificationMessage(
+                snowflake(json, "guild"),
+                snowflake(json, "channel"),
+                json.getInt("channel_type"),
+                json.getString("name"),
+                snowflake(json, "role"),
+                json.getString("message"),
+                json.getString("schedule"),
+                taskType,
+                json.getInt("count_max", NotificationMessage.COUNTNONE),
+                json.getInt("count", 0),
+                snowflake(json, "user"));
+        message.validate();
+        return message;
+    }
+
+    private static String snowflake(DataObject json, String key) {
+        String id = json.getString(key);
+        MiscUtil.parseSnowflake(id);
+        return id;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ *
+ * Copyright (c) 2022 Meindert Kempe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.mkempe.mkJDABot;
+
+import com.github.kagkarlsson.scheduler.stats.StatsRegistry;
+import com.github.kagkarlsson.scheduler.task.ExecutionComplete;
+
+/**
+ * Exports db-scheduler's events as metrics, and tells the wake-up timer when executions finish, since finishing
+ * reschedules them.
+ */
+public class SchedulerStats implements StatsRegistry {
+    private final Metrics.Counter polls = Metrics.getInstance().counter("mkjdabot_scheduler_polls_total",
+            "Queries for due executions, whether polled or woken");
+    private final Metrics.Counter deadExecutions = Metrics.getInstance().counter("mkjdabot_scheduler_dead_executions_total",
+            "Executions found picked by a node that stopped sending heartbeats");
+    private final Metrics.Counter errors = Metrics.getInstance().counter("mkjdabot_scheduler_errors_total",
+            "Unexpected errors in the scheduler or its completion and failure handlers");
+    private final SchedulerWakeUp wakeUp;
+
+    /**
+     * @param wakeUp wake-up timer to notify of finished executions, or null when polling only.
+     */
+    public SchedulerStats(SchedulerWakeUp wakeUp) {
+        this.wakeUp = wakeUp;
+    }
+
+    @Override
+    public void register(SchedulerStatsEvent e) {
+        switch (e) {
+            case RAN_EXECUTE_DUE -> polls.increment();
+            case DEAD_EXECUTION -> deadExecutions.increment();
+            case UNEXPECTED_ERROR, COMPLETIONHANDLER_ERROR, FAILUREHANDLER_ERROR -> errors.increment();
+            default -> {
+            }
+        }
+    }
+
+    @Override
+    public void register(CandidateStatsEvent e) {
+    }
+
+    @Override
+    public void register(ExecutionStatsEvent e) {
+        if (wakeUp != null) wakeUp.lookUp();
+    }
+
+    @Override
+    public void registerSingleCompletedExecution(ExecutionComplete completeEvent) {
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ *
+ * Copyright (c) 2022 Meindert Kempe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.mkempe.mkJDABot;
+
+import com.github.kagkarlsson.scheduler.Scheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Wakes the scheduler when the earliest execution comes due, so it fires on time without polling often.
+ * The scheduler's own polling then only catches what this does not see, such as executions added by other nodes.
+ */
+public class SchedulerWakeUp {
+    private static final Logger logger = LoggerFactory.getLogger(SchedulerWakeUp.class);
+    private final ScheduledExecutorService timer;
+    private final Metrics.Counter lookUps = Metrics.getInstance().counter("mkjdabot_scheduler_wakeup_lookups_total",
+            "Queries for the earliest execution");
+    private final Metrics.Counter wakeUps = Metrics.getInstance().counter("mkjdabot_scheduler_wakeups_total",
+            "Times the scheduler was woken for a due execution");
+    private final AtomicBoolean lookUpQueued = new AtomicBoolean();
+    private Scheduler scheduler;
+    // Guarded by this.
+    private ScheduledFuture<?> armed;
+    private Instant armedAt;
+
+    public SchedulerWakeUp() {
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "scheduler-wakeup");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start(Scheduler scheduler) {
+        this.scheduler = scheduler;
+        lookUp();
+    }
+
+    /**
+     * Looks the earliest execution up again, e.g. after executions completed and were rescheduled.
+     * Requests made while one is queued are served by it.
+     */
+    public void lookUp() {
+        if (lookUpQueued.compareAndSet(false, true))
+            timer.execute(() -> {
+                lookUpQueued.set(false);
+                lookUpNow();
+            });
+    }
+
+    /**
+     * Wakes the scheduler at the given time, unless it is already woken earlier.
+     */
+    public synchronized void wakeAt(Instant at) {
+        if (at == null || timer.isShutdown()) return;
+        if (armed != null && !at.isBefore(armedAt)) return;
+
+        if (armed != null) armed.cancel(false);
+        armedAt = at;
+        // One millisecond late rather than early, execution times are finer than the timer.
+        long delay = Math.max(0, Duration.between(Instant.now(), at).toMillis() + 1);
+        armed = timer.schedule(this::wake, delay, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+
+    private void lookUpNow() {
+        lookUps.increment();
+        try {
+            // Executions due now are being picked already, only later ones need a wake-up.
+            wakeAt(Database.getInstance().getNextExecutionTime(Instant.now()));
+        } catch (RuntimeException e) {
+            logger.warn("Failed to look up the next execution, relying on polling", e);
+        }
+    }
+
+    private void wake() {
+        synchronized (this) {
+            armed = null;
+        }
+        wakeUps.increment();
+        scheduler.triggerCheckForDueExecutions();
+        lookUpNow();
+    }
+}
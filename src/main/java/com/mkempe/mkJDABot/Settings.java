@@ -18,26 +18,91 @@
  *
  */
 
+
 package com.mkempe.mkJDABot;
 
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Settings are read from an immutable snapshot of the settings table, loaded once at startup.
+ * Writes go to the database first and then replace the snapshot, so reads never touch the database.
+ */
 public class Settings {
 
     public static final String API_KEY = "api_key";
+    public static final String DATABASE_WAL = "database_wal";
+    public static final String DATABASE_READERS = "database_readers";
+    public static final String CACHE_SIZE = "cache_size";
+    public static final String COUNT_WRITE_BEHIND = "count_write_behind";
+    public static final String COUNT_FLUSH_SIZE = "count_flush_size";
+    public static final String COUNT_FLUSH_INTERVAL = "count_flush_interval";
+    public static final String COALESCE_WINDOW = "coalesce_window";
+    public static final String DISPATCH_CONCURRENCY = "dispatch_concurrency";
+    public static final String DISPATCH_QUEUE_SIZE = "dispatch_queue_size";
+    public static final String DISPATCH_RETRIES = "dispatch_retries";
+    public static final String COMMAND_EXECUTOR = "command_executor";
+    public static final String COMMAND_CONCURRENCY = "command_concurrency";
+    public static final String COMMAND_TIMEOUT = "command_timeout";
+    public static final String METRICS_PORT = "metrics_port";
+    public static final String CATCHUP_NOTIFY = "catchup_notify";
+    public static final String CATCHUP_REMINDER = "catchup_reminder";
+    public static final String CATCHUP_THRESHOLD = "catchup_threshold";
+    public static final String CATCHUP_RATE = "catchup_rate";
+    public static final String JDA_PROFILE = "jda_profile";
+    public static final String JDA_HEAP_REPORT = "jda_heap_report";
+    public static final String SHARDS = "shards";
+    public static final String SCHEDULER_WAKEUP = "scheduler_wakeup";
+    public static final String SCHEDULER_POLL_INTERVAL = "scheduler_poll_interval";
+    public static final String RECONCILE_INTERVAL = "reconcile_interval";
 
     private static final Settings INSTANCE = new Settings();
     private final Database database;
+    private volatile Map<String, String> snapshot;
 
     private Settings() {
         database = Database.getInstance();
-        database.initSettings();
+        reload();
     }
 
+    /**
+     * @return value of the setting, or null if it has not been set.
+     */
     public String get(String setting) {
-        return database.getSetting(setting);
+        return snapshot.get(setting);
     }
 
-    public void set(String setting, String value) {
+    public String get(String setting, String defaultValue) {
+        return snapshot.getOrDefault(setting, defaultValue);
+    }
+
+    public int getInt(String setting, int defaultValue) {
+        String value = snapshot.get(setting);
+        if (value == null) return defaultValue;
+
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public boolean getBoolean(String setting, boolean defaultValue) {
+        String value = snapshot.get(setting);
+        if (value == null) return defaultValue;
+        return Boolean.parseBoolean(value.trim());
+    }
+
+    public synchronized void set(String setting, String value) {
         database.setSetting(setting, value);
+
+        Map<String, String> settings = new HashMap<>(snapshot);
+        settings.put(setting, value);
+        snapshot = Map.copyOf(settings);
+    }
+
+    public synchronized void reload() {
+        snapshot = Map.copyOf(database.getSettings());
     }
 
     public static Settings getInstance() {
@@ -0,0 +1,96 @@
+/*
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ *
+ * Copyright (c) 2022 Meindert Kempe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package com.mkempe.mkJDABot;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Keeps prepared statements per physical connection, keyed by SQL text.
+ * Statements are prepared on the unwrapped connection so the pool does not close them when the connection is
+ * returned; they are closed when the cache is cleared or once their connection has been closed by the pool.
+ */
+class StatementCache {
+    private final Map<Connection, Map<String, PreparedStatement>> statements = new IdentityHashMap<>();
+
+    PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+        Connection physical = connection.unwrap(Connection.class);
+
+        Map<String, PreparedStatement> cached;
+        synchronized (statements) {
+            cached = statements.get(physical);
+            if (cached == null) {
+                prune();
+                cached = new HashMap<>();
+                statements.put(physical, cached);
+            }
+        }
+
+        // A physical connection is only used by the thread holding it, so its own map needs no locking.
+        PreparedStatement statement = cached.get(sql);
+        if (statement == null || statement.isClosed()) {
+            statement = physical.prepareStatement(sql);
+            cached.put(sql, statement);
+        } else {
+            statement.clearParameters();
+        }
+        return statement;
+    }
+
+    void clear() {
+        synchronized (statements) {
+            for (Map<String, PreparedStatement> cached : statements.values()) {
+                closeAll(cached);
+            }
+            statements.clear();
+        }
+    }
+
+    /**
+     * Drops the statements of connections the pool has closed (e.g. after their max lifetime).
+     */
+    private void prune() throws SQLException {
+        Iterator<Map.Entry<Connection, Map<String, PreparedStatement>>> iterator = statements.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Connection, Map<String, PreparedStatement>> entry = iterator.next();
+            if (entry.getKey().isClosed()) {
+                closeAll(entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    private static void closeAll(Map<String, PreparedStatement> cached) {
+        for (PreparedStatement statement : cached.values()) {
+            try {
+                statement.close();
+            } catch (SQLException ignored) {
+                // Connection is already gone, nothing left to release.
+            }
+        }
+    }
+}
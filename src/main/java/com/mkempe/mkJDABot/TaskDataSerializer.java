@@ -0,0 +1,114 @@
+/*
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ *
+ * Copyright (c) 2022 Meindert Kempe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.mkempe.mkJDABot;
+
+import com.github.kagkarlsson.scheduler.serializer.Serializer;
+
+import java.io.*;
+
+/**
+ * Writes notification payloads to task_data as tagged fields instead of Java serialization, which is several times
+ * larger and slower for these small records. Anything else, and data written before this serializer was used,
+ * goes through the default Java serializer, recognised by its stream header.
+ */
+public class TaskDataSerializer implements Serializer {
+    private static final byte SCHEDULE = 1;
+    private static final byte MESSAGE = 2;
+
+    @Override
+    public byte[] serialize(Object data) {
+        if (data == null) return null;
+        if (!(data instanceof NotificationSchedule) && !(data instanceof NotificationMessage))
+            return DEFAULT_JAVA_SERIALIZER.serialize(data);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            if (data instanceof NotificationSchedule schedule) {
+                out.writeByte(SCHEDULE);
+                out.writeUTF(schedule.cron());
+                out.writeBoolean(schedule.payload() != null);
+                if (schedule.payload() != null) writeMessage(out, schedule.payload());
+            } else {
+                out.writeByte(MESSAGE);
+                writeMessage(out, (NotificationMessage) data);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public <T> T deserialize(Class<T> type, byte[] data) {
+        if (data == null || data.length == 0) return null;
+        if (data[0] != SCHEDULE && data[0] != MESSAGE)
+            return DEFAULT_JAVA_SERIALIZER.deserialize(type, data);
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            if (in.readByte() == MESSAGE)
+                return type.cast(readMessage(in));
+
+            String cron = in.readUTF();
+            return type.cast(new NotificationSchedule(cron, in.readBoolean() ? readMessage(in) : null));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeMessage(DataOutputStream out, NotificationMessage message) throws IOException {
+        writeString(out, message.guild());
+        writeString(out, message.channel());
+        out.writeInt(message.channelType());
+        writeString(out, message.name());
+        writeString(out, message.role());
+        writeString(out, message.message());
+        writeString(out, message.schedule());
+        writeString(out, message.taskType());
+        out.writeInt(message.countMax());
+        out.writeInt(message.count());
+        writeString(out, message.user());
+    }
+
+    private static NotificationMessage readMessage(DataInputStream in) throws IOException {
+        return new NotificationMessage(
+                readString(in),
+                readString(in),
+                in.readInt(),
+                readString(in),
+                readString(in),
+                readString(in),
+                readString(in),
+                readString(in),
+                in.readInt(),
+                in.readInt(),
+                readString(in)
+        );
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ *
+ * Copyright (c) 2022 Meindert Kempe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.mkempe.mkJDABot;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DatabaseTest {
+    private Path file;
+    private Database database;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        file = Files.createTempFile("mkJDABot", ".db");
+        database = Database.getInstance();
+        database.connect("jdbc:sqlite:" + file);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        database.close();
+        Files.deleteIfExists(file);
+    }
+
+    private static NotificationMessage notification(String channel, String name) {
+        return new NotificationMessage("1", channel, 0, name, "3", "message", "0 0 9 * * ?",
+                NotificationMessage.notifyTask.getName(), NotificationMessage.COUNTNONE, 0, "4");
+    }
+
+    private int executions(String instance) throws SQLException {
+        try (Connection connection = database.getDataSource().getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT COUNT(*) FROM scheduled_tasks WHERE task_instance = ?;")) {
+            statement.setString(1, instance);
+            try (ResultSet results = statement.executeQuery()) {
+                results.next();
+                return results.getInt(1);
+            }
+        }
+    }
+
+    @Test
+    void existsReadsTheRow() {
+        database.insertSchedule(notification("2", "present"));
+        assertTrue(database.exists("1", "2", "present"));
+
+        database.deleteSchedule("1", "2", "present");
+        assertFalse(database.exists("1", "2", "present"));
+    }
+
+    @Test
+    void purgeLeavesPickedExecutions() throws SQLException {
+        NotificationMessage idle = notification("2", "idle");
+        NotificationMessage running = notification("2", "running");
+        Instant next = Instant.now().plusSeconds(3600);
+        database.insertSchedules(List.of(idle, running), List.of(next, next));
+        try (Connection connection = database.getDataSource().getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "UPDATE scheduled_tasks SET picked = ? WHERE task_instance = ?;")) {
+            statement.setBoolean(1, true);
+            statement.setString(2, running.instanceId());
+            statement.executeUpdate();
+        }
+
+        assertEquals(2, database.purgeSchedules("1", "2", null));
+
+        assertEquals(0, executions(idle.instanceId()));
+        assertEquals(1, executions(running.instanceId()));
+        assertNull(database.getSchedule("1", "2", "running"));
+    }
+}
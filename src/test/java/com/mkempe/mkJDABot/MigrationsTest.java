@@ -0,0 +1,191 @@
+/*
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ *
+ * Copyright (c) 2022 Meindert Kempe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.mkempe.mkJDABot;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Migrating existing databases, and the query plans of the hot queries: each must be answered from its index,
+ * without a full scan or a temporary sort.
+ */
+class MigrationsTest {
+    private Path file;
+    private Connection connection;
+
+    @BeforeEach
+    void setUp() throws IOException, SQLException {
+        file = Files.createTempFile("mkJDABot", ".db");
+        connection = DriverManager.getConnection("jdbc:sqlite:" + file);
+        Migrations.migrate(connection, Dialect.SQLITE);
+        connection.setAutoCommit(true);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException, SQLException {
+        connection.close();
+        Files.deleteIfExists(file);
+    }
+
+    private static int count(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet results = statement.executeQuery(sql)) {
+            results.next();
+            return results.getInt(1);
+        }
+    }
+
+    private static void insertNotification(Connection connection, String name) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("INSERT INTO notifications VALUES ('1', '2', 0, '" + name + "', '3', 'message', "
+                    + "'0 0 9 * * ?', 'notify', -1, 0, '4');");
+            statement.executeUpdate("INSERT INTO scheduled_tasks (task_name, task_instance, execution_time, picked, "
+                    + "version) VALUES ('notify', '1:2:" + name + "', 0, false, 1);");
+        }
+    }
+
+    @Test
+    void migratingTwiceKeepsVersionAndRows() throws SQLException {
+        insertNotification(connection, "kept");
+        connection.close();
+
+        connection = DriverManager.getConnection("jdbc:sqlite:" + file);
+        Migrations.migrate(connection, Dialect.SQLITE);
+
+        assertEquals(Migrations.latestVersion(), Migrations.currentVersion(connection));
+        assertEquals(Migrations.latestVersion(), count(connection, "SELECT COUNT(*) FROM schema_version;"));
+        assertEquals(1, count(connection, "SELECT COUNT(*) FROM notifications WHERE name = 'kept';"));
+        assertEquals(1, count(connection, "SELECT COUNT(*) FROM scheduled_tasks WHERE task_instance = '1:2:kept';"));
+    }
+
+    @Test
+    void adoptsDatabaseFromBeforeMigrations() throws IOException, SQLException {
+        Path old = Files.createTempFile("mkJDABot", ".db");
+        try (Connection adopted = DriverManager.getConnection("jdbc:sqlite:" + old)) {
+            // The tables as created before migrations were versioned.
+            try (Statement statement = adopted.createStatement()) {
+                statement.execute("CREATE TABLE settings(name TEXT PRIMARY KEY NOT NULL, value TEXT NOT NULL);");
+                statement.execute("""
+                        CREATE TABLE scheduled_tasks
+                        (
+                            task_name            TEXT     NOT NULL,
+                            task_instance        TEXT     NOT NULL,
+                            task_data            BLOB,
+                            execution_time       DATETIME NOT NULL,
+                            picked               BOOLEAN  NOT NULL,
+                            picked_by            TEXT,
+                            last_success         DATETIME,
+                            last_failure         DATETIME,
+                            consecutive_failures INTEGER,
+                            last_heartbeat       DATETIME,
+                            version              INTEGER  NOT NULL,
+                            PRIMARY KEY (task_name, task_instance)
+                        );
+                        """);
+                statement.execute("CREATE INDEX execution_time_idx ON scheduled_tasks (execution_time);");
+                statement.execute("CREATE INDEX last_heartbeat_idx ON scheduled_tasks (last_heartbeat);");
+                statement.execute("""
+                        CREATE TABLE notifications
+                        (
+                            guild        TEXT NOT NULL,
+                            channel      TEXT NOT NULL,
+                            channel_type INTEGER NOT NULL,
+                            name         TEXT NOT NULL,
+                            role         TEXT,
+                            message      TEXT NOT NULL,
+                            schedule     TEXT NOT NULL,
+                            task_type    TEXT NOT NULL,
+                            count_max    INTEGER NOT NULL,
+                            count        INTEGER NOT NULL,
+                            user         TEXT NOT NULL,
+                            PRIMARY KEY (guild, channel, name)
+                        );
+                        """);
+                statement.executeUpdate("INSERT INTO settings VALUES ('api_key', 'key');");
+            }
+            insertNotification(adopted, "old");
+
+            Migrations.migrate(adopted, Dialect.SQLITE);
+
+            assertEquals(Migrations.latestVersion(), Migrations.currentVersion(adopted));
+            assertEquals(1, count(adopted, "SELECT COUNT(*) FROM settings WHERE name = 'api_key';"));
+            assertEquals(1, count(adopted, "SELECT COUNT(*) FROM notifications WHERE name = 'old';"));
+            try (Statement statement = adopted.createStatement();
+                 ResultSet results = statement.executeQuery(
+                         "SELECT task_data FROM scheduled_tasks WHERE task_instance = '1:2:old';")) {
+                assertTrue(results.next());
+                assertNotNull(results.getBytes(1), "payload embedded by the migration");
+            }
+        } finally {
+            Files.deleteIfExists(old);
+        }
+    }
+
+    private void assertIndexed(String sql, String index) throws SQLException {
+        String plan = Migrations.queryPlan(connection, sql);
+        assertTrue(Migrations.usesIndex(plan, index), () -> "Expected " + index + " for " + sql + ", plan: " + plan);
+    }
+
+    @Test
+    void guildListingUsesPrimaryKey() throws SQLException {
+        assertIndexed("SELECT * FROM notifications WHERE guild = ? ORDER BY channel, name LIMIT ?",
+                "sqlite_autoindex_notifications_1");
+    }
+
+    @Test
+    void keysetPageUsesPrimaryKey() throws SQLException {
+        assertIndexed("SELECT * FROM notifications WHERE guild = ? AND (channel, name) > (?, ?) "
+                + "ORDER BY channel, name LIMIT ?", "sqlite_autoindex_notifications_1");
+        assertIndexed("SELECT * FROM notifications WHERE guild = ? AND (channel, name) < (?, ?) "
+                + "ORDER BY channel DESC, name DESC LIMIT ?", "sqlite_autoindex_notifications_1");
+        assertIndexed("SELECT * FROM notifications WHERE guild = ? AND channel = ? AND name > ? "
+                + "ORDER BY name LIMIT ?", "sqlite_autoindex_notifications_1");
+    }
+
+    @Test
+    void nameLookupUsesIndexes() throws SQLException {
+        assertIndexed("SELECT * FROM notifications WHERE guild = ? AND channel = ? AND name = ?",
+                "sqlite_autoindex_notifications_1");
+        assertIndexed("SELECT * FROM notifications WHERE guild = ? AND name = ?", "notifications_guild_name_idx");
+    }
+
+    @Test
+    void dueExecutionPollUsesPickedExecutionTimeIndex() throws SQLException {
+        assertIndexed("SELECT * FROM scheduled_tasks WHERE picked = ? AND execution_time <= ? "
+                + "ORDER BY execution_time ASC", "picked_execution_time_idx");
+        assertIndexed("SELECT MIN(execution_time) FROM scheduled_tasks WHERE picked = ? AND execution_time > ?",
+                "picked_execution_time_idx");
+    }
+}